@@ -0,0 +1,6 @@
+package android.annotation;
+
+/** Stand-in fr die JVM, nur damit die Library bersetzt. */
+public @interface TargetApi {
+	int value();
+}
@@ -0,0 +1,6 @@
+package android.content;
+
+/** Stand-in fr die JVM. */
+public abstract class BroadcastReceiver {
+	public abstract void onReceive(Context context, Intent intent);
+}
@@ -0,0 +1,19 @@
+package android.content;
+
+import java.io.File;
+
+/** 
+ * Stand-in fr die JVM. Die Verzeichnisse liegen unterhalb eines frei 
+ * whlbaren Basisverzeichnisses.
+ */
+public abstract class Context {
+	public abstract String getPackageName();
+	public abstract File getFilesDir();
+	public abstract File getCacheDir();
+
+	public File getExternalFilesDir(String type) { return null; }
+	public File getExternalCacheDir() { return null; }
+	public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) { return null; }
+	public void unregisterReceiver(BroadcastReceiver receiver) {}
+	public Context getApplicationContext() { return this; }
+}
@@ -0,0 +1,18 @@
+package android.content;
+
+import android.net.Uri;
+
+/** Stand-in fr die JVM mit den von der Library benutzten Konstanten. */
+public class Intent {
+	public static final String ACTION_MEDIA_BAD_REMOVAL = "android.intent.action.MEDIA_BAD_REMOVAL";
+	public static final String ACTION_MEDIA_MOUNTED = "android.intent.action.MEDIA_MOUNTED";
+	public static final String ACTION_MEDIA_REMOVED = "android.intent.action.MEDIA_REMOVED";
+	public static final String ACTION_MEDIA_SHARED = "android.intent.action.MEDIA_SHARED";
+
+	private final String mAction;
+
+	public Intent(String action) { mAction = action; }
+
+	public String getAction() { return mAction; }
+	public Uri getData() { return null; }
+}
@@ -0,0 +1,13 @@
+package android.content;
+
+import java.util.ArrayList;
+
+/** Stand-in fr die JVM mit den von der Library benutzten Methoden. */
+public class IntentFilter {
+	private final ArrayList<String> mActions = new ArrayList<String>();
+	private final ArrayList<String> mSchemes = new ArrayList<String>();
+
+	public void addAction(String action) { mActions.add(action); }
+	public void addDataScheme(String scheme) { mSchemes.add(scheme); }
+	public int countActions() { return mActions.size(); }
+}
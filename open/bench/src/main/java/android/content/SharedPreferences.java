@@ -0,0 +1,6 @@
+package android.content;
+
+/** Stand-in fr die JVM, nur die von der Library benutzte Methode. */
+public interface SharedPreferences {
+	String getString(String key, String defValue);
+}
@@ -0,0 +1,6 @@
+package android.content.res;
+
+/** Stand-in fr die JVM, nur damit die Library bersetzt. */
+public class TypedArray {
+	public String getString(int index) { return null; }
+}
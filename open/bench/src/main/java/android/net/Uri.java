@@ -0,0 +1,6 @@
+package android.net;
+
+/** Stand-in fr die JVM mit den von der Library benutzten Methoden. */
+public abstract class Uri {
+	public abstract String getPath();
+}
@@ -0,0 +1,21 @@
+package android.os;
+
+/** 
+ * Stand-in fr die JVM; das SDK-Level kommt aus -Denvironment2.sdk, Default 17.
+ * Anders als im Original nicht final, damit der Replay es pro Gert setzen kann.
+ */
+public class Build {
+	public static final String FINGERPRINT = "jvm/bench:" + System.getProperty("java.version");
+
+	public static class VERSION {
+		public static int SDK_INT = Integer.getInteger("environment2.sdk", 17);
+	}
+
+	public static class VERSION_CODES {
+		public static final int FROYO = 8;
+		public static final int GINGERBREAD = 9;
+		public static final int HONEYCOMB = 11;
+		public static final int JELLY_BEAN = 16;
+		public static final int JELLY_BEAN_MR2 = 18;
+	}
+}
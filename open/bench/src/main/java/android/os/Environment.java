@@ -0,0 +1,39 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Stand-in fr die JVM. Die Pfade kommen aus System-Properties und werden bei
+ * jedem Aufruf neu gelesen, damit ein Benchmark sie im Setup umstellen kann:
+ * <ul>
+ * <li>environment2.system: statt /system (darin etc/vold.fstab)
+ * <li>environment2.data: statt /data
+ * <li>environment2.sdcard: statt /mnt/sdcard
+ * <li>environment2.state: der Zustand der SD-Karte, Default "mounted"
+ * <li>environment2.removable: fr isExternalStorageRemovable(), Default true
+ * <li>environment2.emulated: fr isExternalStorageEmulated(), Default false
+ * </ul>
+ */
+public final class Environment {
+	public static final String MEDIA_MOUNTED = "mounted";
+	public static final String MEDIA_MOUNTED_READ_ONLY = "mounted_ro";
+	public static final String MEDIA_REMOVED = "removed";
+	public static final String MEDIA_UNMOUNTED = "unmounted";
+	public static final String MEDIA_UNMOUNTABLE = "unmountable";
+	public static final String MEDIA_BAD_REMOVAL = "bad_removal";
+	public static final String MEDIA_SHARED = "shared";
+
+	private Environment() {}
+
+	public static File getRootDirectory() { return new File(System.getProperty("environment2.system", "/system")); }
+	public static File getDataDirectory() { return new File(System.getProperty("environment2.data", "/data")); }
+	public static File getExternalStorageDirectory() { return new File(System.getProperty("environment2.sdcard", "/mnt/sdcard")); }
+
+	public static File getExternalStoragePublicDirectory(String type) {
+		return new File(getExternalStorageDirectory(), type);
+	}
+
+	public static String getExternalStorageState() { return System.getProperty("environment2.state", MEDIA_MOUNTED); }
+	public static boolean isExternalStorageRemovable() { return !"false".equals(System.getProperty("environment2.removable")); }
+	public static boolean isExternalStorageEmulated() { return Boolean.getBoolean("environment2.emulated"); }
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+/** Stand-in fr die JVM: fhrt alles sofort im aufrufenden Thread aus. */
+public class Handler {
+	public Handler() {}
+	public Handler(Looper looper) {}
+
+	public boolean post(Runnable r) {
+		r.run();
+		return true;
+	}
+
+	public boolean postDelayed(Runnable r, long delayMillis) { return post(r); }
+	public void removeCallbacks(Runnable r) {}
+}
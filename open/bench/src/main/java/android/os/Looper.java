@@ -0,0 +1,9 @@
+package android.os;
+
+/** Stand-in fr die JVM; es gibt keinen Main-Looper. */
+public final class Looper {
+	private Looper() {}
+
+	public static Looper getMainLooper() { return null; }
+	public static Looper myLooper() { return null; }
+}
@@ -0,0 +1,46 @@
+package android.os;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Stand-in fr die JVM auf Basis von {@link File#getUsableSpace()} und
+ * {@link File#getTotalSpace()} mit festen 4K-Blcken. Wie das Original wirft
+ * es eine IllegalArgumentException, wenn der Pfad nicht existiert.
+ * <p>
+ * Per {@link #simulate(Map)} lassen sich stattdessen feste Werte pro Pfad
+ * vorgeben, auch fr Pfade, die es nicht gibt; so simuliert der Replay die 
+ * Karten eines Gerts.
+ */
+public class StatFs {
+	private static final int BLOCK = 4096;
+	private static volatile Map<String, long[]> mSimulated = null;
+	private long mAvailable, mCount;
+
+	/** 
+	 * @param sizes pro Pfad Gesamtgre und freien Speicher in Bytes; Pfade,
+	 * 		die fehlen, gelten als nicht vorhanden. null schaltet die Simulation ab.
+	 */
+	public static void simulate(Map<String, long[]> sizes) { mSimulated = sizes; }
+
+	public StatFs(String path) { restat(path); }
+
+	public void restat(String path) {
+		Map<String, long[]> sim = mSimulated;
+		if (sim!=null) {
+			long[] size = sim.get(path);
+			if (size==null) throw new IllegalArgumentException("Invalid path: " + path);
+			mCount = size[0]/BLOCK;
+			mAvailable = size[1]/BLOCK;
+			return;
+		}
+		File f = new File(path);
+		if (!f.exists()) throw new IllegalArgumentException("Invalid path: " + path);
+		mAvailable = f.getUsableSpace()/BLOCK;
+		mCount = f.getTotalSpace()/BLOCK;
+	}
+
+	public int getBlockSize() { return BLOCK; }
+	public int getAvailableBlocks() { return (int)Math.min(Integer.MAX_VALUE, mAvailable); }
+	public int getBlockCount() { return (int)Math.min(Integer.MAX_VALUE, mCount); }
+}
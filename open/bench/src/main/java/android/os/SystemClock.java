@@ -0,0 +1,9 @@
+package android.os;
+
+/** Stand-in fr die JVM. */
+public final class SystemClock {
+	private SystemClock() {}
+
+	public static long elapsedRealtime() { return System.nanoTime()/1000000; }
+	public static long uptimeMillis() { return System.nanoTime()/1000000; }
+}
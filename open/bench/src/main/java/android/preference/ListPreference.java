@@ -0,0 +1,17 @@
+package android.preference;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.util.AttributeSet;
+
+/** Stand-in fr die JVM, nur damit die Library bersetzt. */
+public class ListPreference {
+	private final Context mContext;
+
+	public ListPreference(Context context, AttributeSet attrs) { mContext = context; }
+
+	public Context getContext() { return mContext; }
+	public void setEntries(CharSequence[] entries) {}
+	public void setEntryValues(CharSequence[] entryValues) {}
+	protected Object onGetDefaultValue(TypedArray a, int index) { return null; }
+}
@@ -0,0 +1,18 @@
+package android.text;
+
+/** Stand-in fr die JVM mit den von der Library benutzten Methoden. */
+public final class TextUtils {
+	private TextUtils() {}
+
+	public static boolean equals(CharSequence a, CharSequence b) {
+		if (a==b) return true;
+		if (a==null || b==null || a.length()!=b.length()) return false;
+		if (a instanceof String && b instanceof String) return a.equals(b);
+		for (int i=0; i<a.length(); i++) if (a.charAt(i)!=b.charAt(i)) return false;
+		return true;
+	}
+
+	public static boolean isEmpty(CharSequence s) {
+		return s==null || s.length()==0;
+	}
+}
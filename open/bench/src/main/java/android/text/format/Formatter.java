@@ -0,0 +1,15 @@
+package android.text.format;
+
+import android.content.Context;
+
+/** Stand-in fr die JVM, ohne Ressourcen. */
+public final class Formatter {
+	private Formatter() {}
+
+	public static String formatShortFileSize(Context context, long number) {
+		if (number<1024) return number + " B";
+		if (number<1024*1024) return number/1024 + " KB";
+		if (number<1024*1024*1024) return number/(1024*1024) + " MB";
+		return number/(1024*1024*1024) + " GB";
+	}
+}
@@ -0,0 +1,7 @@
+package android.util;
+
+/** Stand-in fr die JVM mit den von der Library benutzten Methoden. */
+public interface AttributeSet {
+	String getAttributeValue(String namespace, String name);
+	boolean getAttributeBooleanValue(String namespace, String name, boolean defaultValue);
+}
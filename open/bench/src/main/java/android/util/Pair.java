@@ -0,0 +1,12 @@
+package android.util;
+
+/** Stand-in fr die JVM. */
+public class Pair<F, S> {
+	public final F first;
+	public final S second;
+
+	public Pair(F first, S second) {
+		this.first = first;
+		this.second = second;
+	}
+}
@@ -0,0 +1,75 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Baut fr die Benchmarks ein Verzeichnis auf, das die Stand-ins von
+ * {@link android.os.Environment} als /system, /data und /mnt/sdcard benutzen.
+ * Muss vor dem ersten Zugriff auf {@link Environment2} laufen, da JMH jeden
+ * Benchmark in einer eigenen JVM startet, ist das im Setup gegeben.
+ */
+final class BenchEnv {
+	/** die vold-Dateien in src/main/resources/vold */
+	static final String[] CORPUS = { 
+		"galaxy_s2.fstab", "galaxy_s3.fstab", "nexus_s.fstab", "one_x.fstab", "xperia_s.fstab", "droid.conf" 
+	};
+
+	private BenchEnv() {}
+
+
+	/**
+	 * @param vold der Name einer Datei aus {@link #CORPUS}, die als
+	 * 		etc/vold.fstab bereitgestellt wird, oder null fr keine (dann
+	 * 		sucht Environment2 in /proc/self/mountinfo)
+	 * @return das Basisverzeichnis
+	 */
+	static File setup(String vold) throws IOException {
+		File root = tempDir("environment2-bench");
+		File system = new File(root, "system");
+		File etc = new File(system, "etc");
+		File data = new File(root, "data");
+		File sdcard = new File(root, "sdcard");
+		if (!etc.mkdirs() || !data.mkdirs() || !sdcard.mkdirs()) throw new IOException("kann "+root+" nicht anlegen");
+		if (vold!=null) copy(vold, new File(etc, "vold.fstab"));
+		System.setProperty("environment2.system", system.getAbsolutePath());
+		System.setProperty("environment2.data", data.getAbsolutePath());
+		System.setProperty("environment2.sdcard", sdcard.getAbsolutePath());
+		return root;
+	}
+
+
+	/** @return eine Kopie der vold-Datei aus dem Corpus als Datei */
+	static File corpusFile(String name) throws IOException {
+		File f = new File(tempDir("environment2-vold"), name);
+		copy(name, f);
+		return f;
+	}
+
+
+	private static File tempDir(String prefix) throws IOException {
+		File f = File.createTempFile(prefix, "");
+		if (!f.delete() || !f.mkdir()) throw new IOException("kann "+f+" nicht anlegen");
+		f.deleteOnExit();
+		return f;
+	}
+
+
+	private static void copy(String resource, File to) throws IOException {
+		InputStream in = BenchEnv.class.getResourceAsStream("/vold/"+resource);
+		if (in==null) throw new IOException("nicht im Corpus: "+resource);
+		OutputStream out = new FileOutputStream(to);
+		try {
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf))>0) out.write(buf, 0, n);
+		} finally {
+			in.close();
+			out.close();
+		}
+		to.deleteOnExit();
+	}
+}
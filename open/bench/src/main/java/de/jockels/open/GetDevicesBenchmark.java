@@ -0,0 +1,52 @@
+package de.jockels.open;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 
+ * {@link Environment2#getDevices(String, boolean, boolean, boolean)} mit allen
+ * Kombinationen der Parameter, auf der Gerteliste eines Galaxy S3.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetDevicesBenchmark {
+	/** "" steht fr key==null */
+	@Param({ "", "usb" })
+	public String key;
+	@Param({ "false", "true" })
+	public boolean available;
+	@Param({ "false", "true" })
+	public boolean intern;
+	@Param({ "false", "true" })
+	public boolean data;
+
+	private String mKey;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchEnv.setup("galaxy_s3.fstab");
+		Environment2.rescanDevices();
+		mKey = key.length()==0 ? null : key;
+	}
+
+	@Benchmark
+	public Device[] getDevices() {
+		return Environment2.getDevices(mKey, available, intern, data);
+	}
+}
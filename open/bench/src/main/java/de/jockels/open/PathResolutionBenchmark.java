@@ -0,0 +1,59 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.SharedPreferences;
+import de.jockels.open.pref.DevicesListPreference;
+
+/** 
+ * Zuordnung Pfad -> Device ber {@link DevicesListPreference#getDevice} und
+ * {@link Environment2#getDeviceForPath(File)}, mit den verschachtelten 
+ * MountPoints eines Galaxy S2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathResolutionBenchmark {
+	@Param({ "/mnt/sdcard/external_sd/DCIM/Camera/IMG_0001.jpg", "/mnt/sdcard/usbStorage/a/b/c/d/e/f.txt", "/nowhere/file" })
+	public String path;
+
+	private File mFile;
+	private SharedPreferences mPrefs;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchEnv.setup("galaxy_s2.fstab");
+		Environment2.rescanDevices();
+		mFile = new File(path);
+		mPrefs = new SharedPreferences() {
+			public String getString(String key, String defValue) { return path; }
+		};
+	}
+
+	@Benchmark
+	public Device preference() {
+		return DevicesListPreference.getDevice(null, mPrefs, "device");
+	}
+
+	@Benchmark
+	public Device deviceForPath() {
+		return Environment2.getDeviceForPath(mFile);
+	}
+}
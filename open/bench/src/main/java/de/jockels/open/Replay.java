@@ -0,0 +1,417 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Build;
+import android.os.StatFs;
+
+/**
+ * Spielt die Erkennung von {@link Environment2} mit aufgezeichneten Gerten
+ * durch, prft das Ergebnis und misst den Durchsatz ber den ganzen Corpus.
+ * Die Heuristiken in scanVold() und scan() sind Gert fr Gert entstanden
+ * (discard=disable beim Galaxy Note, "usb" beim One X+, verschachtelte
+ * MountPoints bei Samsung); der Replay zeigt, ob eine Korrektur fr ein Gert
+ * ein anderes kaputt macht.
+ * <p>
+ * Jedes Unterverzeichnis des Corpus ist ein Gert, aufgebaut wie dessen
+ * Dateisystem:
+ * <ul>
+ * <li>system/etc/vold.fstab oder system/etc/vold.conf, falls vorhanden
+ * <li>proc/self/mountinfo, falls vorhanden
+ * <li>device.properties mit SDK-Level, MountPoint und Zustand der primren
+ * 	Karte, den gemounteten Verzeichnissen, den statfs-Werten und dem
+ * 	erwarteten Ergebnis (siehe die Gerte in bench/replay)
+ * </ul>
+ * Danach prft der Replay mit denselben Gerten, ob beim Wechsel von einem
+ * zum nchsten genau die passenden ADDED- und REMOVED-Ereignisse verteilt 
+ * werden, ein berholter Stand keine Ereignisse mehr erzeugt und die 
+ * Reservierungen pro MountPoint einen Rescan berstehen.
+ * <p>
+ * Aufruf nach {@code mvn package}, Exit-Code 1, falls ein Gert nicht wie
+ * erwartet erkannt wurde: <pre>
+ * java -cp target/benchmarks.jar de.jockels.open.Replay [Verzeichnis [Durchgnge]]
+ * </pre>
+ */
+public final class Replay {
+	private static final String MOUNTINFO = "proc/self/mountinfo";
+
+	private Replay() {}
+
+
+	/**
+	 * Ein aufgezeichnetes Gert. Ist zugleich die {@link MountProbe}, die
+	 * {@link DeviceDiv} whrend des Replays befragt.
+	 */
+	static final class Fixture extends MountProbe {
+		final String name;
+		final File dir;
+		private final Properties mProps = new Properties();
+		private final HashMap<String, long[]> mStatFs = new HashMap<String, long[]>();
+		private final HashSet<String> mMounted = new HashSet<String>();
+		private final HashSet<String> mReadOnly = new HashSet<String>();
+
+		Fixture(File dir) throws IOException {
+			this.dir = dir;
+			name = dir.getName();
+			InputStream in = new FileInputStream(new File(dir, "device.properties"));
+			try {
+				mProps.load(in);
+			} finally {
+				in.close();
+			}
+			mMounted.addAll(list("mounted"));
+			mReadOnly.addAll(list("readonly"));
+			for (String key : mProps.stringPropertyNames()) if (key.startsWith("statfs.")) {
+				String[] v = mProps.getProperty(key).trim().split("\\s+");
+				if (v.length!=2) throw new IOException(name+": "+key+" braucht Gesamtgre und freien Speicher");
+				mStatFs.put(key.substring(7), new long[] { Long.parseLong(v[0]), Long.parseLong(v[1]) });
+			}
+		}
+
+		/** stellt die Stand-ins und Environment2 auf dieses Gert um */
+		void apply() {
+			Build.VERSION.SDK_INT = Integer.parseInt(mProps.getProperty("sdk", "17").trim());
+			System.setProperty("environment2.system", new File(dir, "system").getAbsolutePath());
+			System.setProperty("environment2.sdcard", mProps.getProperty("sdcard", "/mnt/sdcard").trim());
+			System.setProperty("environment2.state", mProps.getProperty("state", "mounted").trim());
+			System.setProperty("environment2.removable", mProps.getProperty("removable", "true").trim());
+			System.setProperty("environment2.emulated", mProps.getProperty("emulated", "false").trim());
+			StatFs.simulate(mStatFs);
+			MountProbe.set(this);
+			Environment2.setMountInfoFile(new File(dir, MOUNTINFO));
+		}
+
+		@Override
+		boolean isReadable(File f) {
+			String p = f.getPath();
+			return mMounted.contains(p) || mReadOnly.contains(p);
+		}
+
+		@Override
+		boolean isWriteable(File f) { return mMounted.contains(f.getPath()); }
+
+		/** @return die vold-Datei des Gerts oder null, falls es keine hat */
+		File voldFile() {
+			for (String n : new String[] { "vold.fstab", "vold.conf" }) {
+				File f = new File(dir, "system/etc/"+n);
+				if (f.isFile()) return f;
+			}
+			return null;
+		}
+
+		File mountInfoFile() {
+			File f = new File(dir, MOUNTINFO);
+			return f.isFile() ? f : null;
+		}
+
+		/** @return die Abweichungen vom erwarteten Ergebnis, leer wenn alles stimmt */
+		List<String> check(DeviceRegistry r) {
+			ArrayList<String> errors = new ArrayList<String>();
+			expect(errors, "primary.removable", String.valueOf(r.primary.isRemovable()));
+			expect(errors, "secondary", r.secondary==null ? "none" : r.secondary.getMountPoint());
+			expect(errors, "secondary.available", r.secondary==null ? "none" : String.valueOf(r.secondary.isAvailable()));
+			expect(errors, "emulated", String.valueOf(r.externalEmulated));
+			StringBuilder sb = new StringBuilder();
+			for (Device d : r.devices) {
+				if (sb.length()>0) sb.append(", ");
+				sb.append(d.getMountPoint());
+			}
+			expect(errors, "devices", sb.toString());
+			return errors;
+		}
+
+		private void expect(List<String> errors, String key, String actual) {
+			String expected = mProps.getProperty("expect."+key);
+			if (expected==null) return;
+			if (key.equals("devices")) {
+				if (!list("expect.devices").equals(actual.length()==0 ? new ArrayList<String>() : Arrays.asList(actual.split(", "))))
+					errors.add(key+": erwartet ["+expected.trim()+"], gefunden ["+actual+"]");
+			} else if (!expected.trim().equals(actual))
+				errors.add(key+": erwartet "+expected.trim()+", gefunden "+actual);
+		}
+
+		private List<String> list(String key) {
+			ArrayList<String> l = new ArrayList<String>();
+			String v = mProps.getProperty(key);
+			if (v!=null) for (String s : v.split(",")) if (s.trim().length()>0) l.add(s.trim());
+			return l;
+		}
+	}
+
+
+	public static void main(String[] args) throws IOException {
+		File corpus = new File(args.length>0 ? args[0] : "replay");
+		int rounds = args.length>1 ? Integer.parseInt(args[1]) : 2000;
+		File[] dirs = corpus.listFiles();
+		if (dirs==null) throw new IOException("kein Corpus in "+corpus.getAbsolutePath());
+		Arrays.sort(dirs);
+		ArrayList<Fixture> fixtures = new ArrayList<Fixture>();
+		for (File d : dirs) if (new File(d, "device.properties").isFile()) fixtures.add(new Fixture(d));
+
+		// 1. Erkennung prfen, bei Abweichungen mit dem Trace des Scans
+		int failed = 0;
+		Environment2.setTraceLevel(Environment2.TRACE_VERBOSE);
+		for (Fixture f : fixtures) {
+			f.apply();
+			Trace.clear();
+			Environment2.rescanDevices();
+			List<String> errors = f.check(Environment2.registry());
+			if (errors.isEmpty()) {
+				System.out.println("ok     "+f.name);
+			} else {
+				failed++;
+				System.out.println("FEHLER "+f.name);
+				for (String e : errors) System.out.println("       "+e);
+				System.out.print(Environment2.dumpTrace());
+			}
+		}
+		System.out.println(fixtures.size()-failed+" von "+fixtures.size()+" Gerten richtig erkannt");
+
+		// 2. Ereignisse beim Gertewechsel und Reservierungen
+		Environment2.setTraceLevel(Environment2.TRACE_INFO);
+		List<String> errors = checkEvents(fixtures);
+		errors.addAll(checkLedger(fixtures));
+		if (errors.isEmpty()) {
+			System.out.println("ok     Ereignisse und Reservierungen");
+		} else {
+			failed++;
+			System.out.println("FEHLER Ereignisse und Reservierungen");
+			for (String e : errors) System.out.println("       "+e);
+		}
+
+		// 3. Durchsatz mit dem Default-Level des Trace, wie in einer App
+		Environment2.setMetricsEnabled(true, true);
+		parse(fixtures, rounds/10);
+		long lines = 0, time = System.nanoTime();
+		for (Fixture f : fixtures) lines += parse(f, rounds);
+		time = System.nanoTime()-time;
+		System.out.printf("Zerlegen:    %d Zeilen in %d ms, %.0f Zeilen/s%n", lines, time/1000000, lines*1e9/time);
+
+		long total = 0;
+		for (Fixture f : fixtures) {
+			f.apply();
+			for (int i=0; i<rounds/10; i++) Environment2.rescanDevices();
+			long t = System.nanoTime();
+			for (int i=0; i<rounds; i++) Environment2.rescanDevices();
+			t = System.nanoTime()-t;
+			total += t;
+			System.out.printf("  %-20s %8.1f us/Scan%n", f.name, t/1e3/rounds);
+		}
+		long scans = (long)rounds*fixtures.size();
+		System.out.printf("Klassifizieren: %d Scans in %d ms, %.0f Scans/s%n", scans, total/1000000, scans*1e9/total);
+		System.out.print(Environment2.getMetrics());
+
+		MountProbe.set(null);
+		StatFs.simulate(null);
+		System.exit(failed==0 ? 0 : 1);
+	}
+
+
+	/** sammelt ADDED und REMOVED als "ADDED /mnt/sdcard" usw. */
+	private static final class Recorder implements DeviceListener {
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+		public void onDeviceEvent(DeviceEvent e) {
+			if (e.getType()==DeviceEvent.ADDED) events.add("ADDED "+e.getDevice().getMountPoint());
+			else if (e.getType()==DeviceEvent.REMOVED) events.add("REMOVED "+e.getDevice().getMountPoint());
+		}
+
+		List<String> take() {
+			synchronized (events) {
+				ArrayList<String> l = new ArrayList<String>(events);
+				events.clear();
+				return l;
+			}
+		}
+	}
+
+
+	/**
+	 * Wechselt reihum von Gert zu Gert und vergleicht die Ereignisse mit 
+	 * dem, was laut den beiden Stnden verfgbar wurde oder wegfiel.
+	 * @return die Abweichungen, leer wenn alles stimmt
+	 */
+	private static List<String> checkEvents(List<Fixture> fixtures) {
+		ArrayList<String> errors = new ArrayList<String>();
+		if (fixtures.isEmpty()) return errors;
+		Recorder rec = new Recorder();
+		fixtures.get(fixtures.size()-1).apply();
+		Environment2.rescanDevices();
+		Environment2.addDeviceListener(rec);
+		try {
+			for (Fixture f : fixtures) {
+				HashSet<String> before = available(Environment2.registry());
+				f.apply();
+				Environment2.rescanDevices();
+				DeviceRegistry r = Environment2.registry();
+				HashSet<String> after = available(r);
+				ArrayList<String> expected = new ArrayList<String>();
+				for (String mp : after) if (!before.contains(mp)) expected.add("ADDED "+mp);
+				for (String mp : before) if (!after.contains(mp)) expected.add("REMOVED "+mp);
+				List<String> got = rec.take();
+				Collections.sort(expected);
+				Collections.sort(got);
+				if (!expected.equals(got)) errors.add(f.name+": Ereignisse "+got+", erwartet "+expected);
+
+				// derselbe Stand noch einmal: nichts kommt oder geht
+				Environment2.rescanDevices();
+				got = rec.take();
+				if (!got.isEmpty()) errors.add(f.name+": Ereignisse ohne nderung "+got);
+
+				// ein berholter Stand, etwa von einem langsamen Rescan, wird verworfen
+				DeviceEventDispatcher.publish(r);
+				got = rec.take();
+				if (!got.isEmpty()) errors.add(f.name+": Ereignisse aus berholtem Stand "+got);
+			}
+		} finally {
+			Environment2.removeDeviceListener(rec);
+		}
+		return errors;
+	}
+
+
+	private static HashSet<String> available(DeviceRegistry r) {
+		HashSet<String> s = new HashSet<String>();
+		if (r.primary.isAvailable()) s.add(r.primary.getMountPoint());
+		for (Device d : r.devices) if (d.isAvailable()) s.add(d.getMountPoint());
+		return s;
+	}
+
+
+	/**
+	 * Reserviert auf dem ersten beschreibbaren Device eines Gerts: keine 
+	 * berbuchung, auch nicht aus mehreren Threads, die Reservierung bersteht 
+	 * einen Rescan, und {@link Device#forgetLedger(String)} verwirft den 
+	 * Zhler nur ohne offene Reservierungen.
+	 * @return die Abweichungen, leer wenn alles stimmt
+	 */
+	private static List<String> checkLedger(List<Fixture> fixtures) {
+		ArrayList<String> errors = new ArrayList<String>();
+		Fixture fixture = null;
+		Device d = null;
+		for (Fixture f : fixtures) {
+			f.apply();
+			Environment2.rescanDevices();
+			d = writeable(Environment2.registry(), null);
+			if (d!=null) { fixture = f; break; }
+		}
+		if (d==null) {
+			errors.add("kein beschreibbares Device fr die Reservierungen");
+			return errors;
+		}
+		String mp = d.getMountPoint(), at = fixture.name+" "+mp+": ";
+		long free = d.getFreeUnreserved(), half = free/2;
+		if (d.getReserved()!=0) errors.add(at+"schon "+d.getReserved()+" Bytes reserviert");
+
+		Reservation a = d.reserve(half);
+		if (a==null) errors.add(at+"Reservierung von "+half+" Bytes abgelehnt");
+		else if (d.getReserved()!=half) errors.add(at+"reserviert "+d.getReserved()+", erwartet "+half);
+		if (d.reserve(free)!=null) errors.add(at+"berbucht: "+free+" Bytes zustzlich bewilligt");
+
+		// ein Rescan erzeugt neue Device-Objekte, die Reservierung bleibt
+		Environment2.rescanDevices();
+		Device d2 = writeable(Environment2.registry(), mp);
+		if (d2==null) errors.add(at+"nach dem Rescan verschwunden");
+		else if (a!=null && d2.getReserved()!=half) errors.add(at+"nach dem Rescan "+d2.getReserved()+" reserviert, erwartet "+half);
+		if (d2==null) d2 = d;
+
+		// mit offener Reservierung darf der Zhler nicht verschwinden
+		Device.forgetLedger(mp);
+		if (a!=null && d2.getReserved()!=half) errors.add(at+"forgetLedger() hat eine offene Reservierung verworfen");
+		if (a!=null) {
+			a.release();
+			a.release();
+		}
+		if (d2.getReserved()!=0) errors.add(at+"nach release() noch "+d2.getReserved()+" reserviert");
+
+		// ohne Reservierung wird er verworfen, und der nchste reserve() legt einen neuen an
+		Device.forgetLedger(mp);
+		Reservation b = d2.reserve(half);
+		if (b==null) errors.add(at+"nach forgetLedger() keine Reservierung mehr mglich");
+		else {
+			if (d2.getReserved()!=half) errors.add(at+"neuer Zhler zeigt "+d2.getReserved()+", erwartet "+half);
+			b.release();
+		}
+
+		// mehrere Threads zugleich bekommen zusammen nicht mehr als frei ist
+		final Device target = d2;
+		final long chunk = Math.max(1, free/10);
+		final AtomicLong granted = new AtomicLong(0);
+		final List<Reservation> held = Collections.synchronizedList(new ArrayList<Reservation>());
+		Thread[] threads = new Thread[4];
+		for (int i=0; i<threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int j=0; j<5; j++) {
+						Reservation r = target.reserve(chunk);
+						if (r!=null) {
+							granted.addAndGet(chunk);
+							held.add(r);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (granted.get()>free) errors.add(at+"aus mehreren Threads berbucht: "+granted.get()+" von "+free+" Bytes");
+		if (target.getReserved()!=granted.get()) errors.add(at+"Zhler "+target.getReserved()+", bewilligt "+granted.get());
+		synchronized (held) { for (Reservation r : held) r.release(); }
+		if (target.getReserved()!=0) errors.add(at+"nach allen release() noch "+target.getReserved()+" reserviert");
+		return errors;
+	}
+
+
+	/** @return das erste verfgbare, beschreibbare Device mit Gre, bei mountPoint!=null genau dieses */
+	private static Device writeable(DeviceRegistry r, String mountPoint) {
+		for (Device d : r.devices) {
+			if (mountPoint!=null && !mountPoint.equals(d.getMountPoint())) continue;
+			if (d.isAvailable() && d.isWriteable() && d.getSize()!=null && d.getFreeUnreserved()>0) return d;
+		}
+		return null;
+	}
+
+
+	private static void parse(List<Fixture> fixtures, int rounds) {
+		for (Fixture f : fixtures) parse(f, rounds);
+	}
+
+
+	/** @return die Anzahl der zerlegten Zeilen */
+	private static long parse(Fixture f, int rounds) {
+		long lines = 0;
+		File vold = f.voldFile(), mountInfo = f.mountInfoFile();
+		if (vold!=null) {
+			VoldParser p = new VoldParser();
+			ArrayList<VoldParser.Entry> entries = new ArrayList<VoldParser.Entry>();
+			for (int i=0; i<rounds; i++) {
+				entries.clear();
+				p.parse(vold, entries);
+				lines += p.getLineCount();
+			}
+		}
+		if (mountInfo!=null) for (int i=0; i<rounds; i++) {
+			// jedes Mal neu, sonst zerlegt MountInfo nur genderte Zeilen
+			MountInfo m = new MountInfo(mountInfo);
+			m.parse();
+			lines += m.getParsedCount();
+		}
+		return lines;
+	}
+}
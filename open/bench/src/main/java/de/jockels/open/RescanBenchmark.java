@@ -0,0 +1,43 @@
+package de.jockels.open;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 
+ * Ein kompletter {@link Environment2#rescanDevices()}, einmal ber vold.fstab 
+ * und einmal ber /proc/self/mountinfo des Rechners. 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RescanBenchmark {
+	/** eine Datei aus {@link BenchEnv#CORPUS} oder "mountinfo" */
+	@Param({ "galaxy_s3.fstab", "mountinfo" })
+	public String source;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchEnv.setup("mountinfo".equals(source) ? null : source);
+	}
+
+	@Benchmark
+	public Object rescan() {
+		Environment2.rescanDevices();
+		return Environment2.getPrimaryExternalStorage();
+	}
+}
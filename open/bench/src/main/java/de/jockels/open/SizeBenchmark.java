@@ -0,0 +1,48 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** 
+ * {@link Size#getSpace(File)} mit und ohne {@link Size.Holder} sowie 
+ * {@link Size#guessSize()}. Der statfs-Aufruf selbst ist hier der des Rechners.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizeBenchmark {
+	private final File mFile = new File(System.getProperty("java.io.tmpdir"));
+	private final Size.Holder mHolder = new Size.Holder();
+	private final long[] mSizes = { 0, 900L*1024, 7L*1024*1024*1024+1, 14L*1024*1024*1024, 60L*1024*1024*1024 };
+	private int mNext = 0;
+
+	@Benchmark
+	public Size getSpace() {
+		return Size.getSpace(mFile);
+	}
+
+	@Benchmark
+	public long getSpaceHolder() {
+		Size.getSpace(mFile, mHolder);
+		return mHolder.getFree();
+	}
+
+	@Benchmark
+	public long guessSize() {
+		if (++mNext==mSizes.length) mNext = 0;
+		return Size.guessSize(mSizes[mNext]);
+	}
+}
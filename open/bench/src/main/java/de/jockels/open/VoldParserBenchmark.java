@@ -0,0 +1,48 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Zerlegen der vold-Dateien aus dem Corpus durch {@link VoldParser}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoldParserBenchmark {
+	@Param({ "galaxy_s2.fstab", "galaxy_s3.fstab", "nexus_s.fstab", "one_x.fstab", "xperia_s.fstab", "droid.conf" })
+	public String file;
+
+	private File mFile;
+	private final VoldParser mParser = new VoldParser();
+	private final ArrayList<VoldParser.Entry> mEntries = new ArrayList<VoldParser.Entry>();
+
+	@Setup
+	public void setup() throws IOException {
+		mFile = BenchEnv.corpusFile(file);
+		if (!mParser.parse(mFile, mEntries) || mEntries.isEmpty()) 
+			throw new IllegalStateException("keine Eintrge in "+file);
+	}
+
+	@Benchmark
+	public int parse() {
+		mEntries.clear();
+		mParser.parse(mFile, mEntries);
+		return mEntries.size();
+	}
+}
@@ -0,0 +1,414 @@
+package de.jockels.open;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Verwaltet das Cache-Verzeichnis ({@link Device#getCacheDir(Context)}) eines
+ * Devices mit einer Obergrenze. Android rumt Cache-Verzeichnisse auf 
+ * entnehmbaren Karten nie auf; hier werden die am lngsten nicht benutzten 
+ * Dateien im Hintergrund gelscht, sobald die Quota berschritten ist oder 
+ * auf dem Device weniger als die Wassermarke frei ist. Den freien Speicher
+ * beobachtet dazu der {@link FreeSpaceWatcher}, so dass auch aufgerumt 
+ * wird, wenn andere Apps den Platz belegen. Gelscht wird ohne das Lock,
+ * {@link #get(String)} wartet also nicht auf das Aufrumen.
+ * <p>
+ * Der Cache ist flach, die Namen sind einfache Dateinamen. Die Reihenfolge 
+ * der Zugriffe steht im Speicher und zustzlich in einem Journal 
+ * ({@link #JOURNAL}) im Cache-Verzeichnis, aus dem sie beim Start ohne 
+ * Durchlaufen des Verzeichnisses wieder aufgebaut wird. Nur wenn es noch 
+ * kein Journal gibt, wird das Verzeichnis einmal gelesen.
+ * <p>
+ * Das Journal wird nie offen gehalten: nderungen sammeln sich im Speicher
+ * und werden bei {@link #put(String)}, {@link #remove(String)} und nach
+ * einigen Zugriffen angehngt und die Datei sofort wieder geschlossen. Eine
+ * offene Datei auf der Karte wrde sonst dazu fhren, dass vold die App 
+ * beim Auswerfen oder bei USB-Freigabe beendet.
+ * <p>
+ * Benutzung:
+ * <pre>
+ * CacheManager c = Environment2.getCacheManager(ctx, device);
+ * File f = c.get("bild123.jpg");
+ * if (f==null) { f = c.newFile("bild123.jpg"); ...schreiben...; c.put("bild123.jpg"); }
+ * </pre>
+ * Thread-safe.
+ *
+ * @since 1.6
+ */
+public final class CacheManager implements FreeSpaceListener {
+	private static final String TAG = "CacheManager";
+	/** der Name des Journals im Cache-Verzeichnis */
+	static final String JOURNAL = "environment2.lru";
+	/** so viel wird beim Aufrumen unter die Quota gelscht, in Prozent */
+	private static final int LOW_WATER = 90;
+	/** ab so vielen gesammelten Zeichen wird das Journal auch ohne put() geschrieben */
+	private static final int PENDING_MAX = 4096;
+
+	private static final HashMap<String, CacheManager> mManagers = new HashMap<String, CacheManager>();
+	private static ExecutorService mExecutor = null;
+
+	private static final class Entry {
+		long size;
+		Entry(long size) { this.size = size; }
+	}
+
+	private volatile Device mDevice;
+	private final File mDir;
+	// in Zugriffsreihenfolge, die lteste zuerst
+	private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private long mTotal = 0;
+	private long mQuota;
+	private long mFreeWatermark = DeviceEventDispatcher.DEFAULT_THRESHOLD;
+	// noch nicht geschriebene Journal-Zeilen
+	private final StringBuilder mPending = new StringBuilder();
+	private int mJournalLines = 0;
+	private boolean mTrimScheduled = false;
+
+
+	private CacheManager(Device d, File dir) {
+		mDevice = d;
+		mDir = dir;
+		Size s = d.getSize();
+		mQuota = s==null || s.getTotal()==0 ? Long.MAX_VALUE : s.getTotal()/10;
+		load();
+	}
+
+
+	/** @see Environment2#getCacheManager(Context, Device) */
+	static CacheManager get(Context ctx, Device d) {
+		synchronized (mManagers) {
+			CacheManager c = mManagers.get(d.getMountPoint());
+			if (c==null) {
+				File dir = d.getCacheDir(ctx);
+				if (dir==null) return null;
+				c = new CacheManager(d, dir);
+				mManagers.put(d.getMountPoint(), c);
+				FreeSpaceWatcher.add(d, c.mFreeWatermark, c.mFreeWatermark, c);
+			} else 
+				// nach einem Rescan ein neues Device-Objekt
+				c.mDevice = d;
+			return c;
+		}
+	}
+
+
+	/** 
+	 * vergisst den Manager eines MountPoints, den ein Rescan nicht mehr 
+	 * gefunden hat; wer ihn noch hlt, kann ihn weiter benutzen
+	 */
+	static void forget(String mountPoint) {
+		CacheManager c;
+		synchronized (mManagers) { c = mManagers.remove(mountPoint); }
+		if (c!=null) synchronized (c) { c.flush(); }
+	}
+
+
+	public Device getDevice() { return mDevice; }
+	public File getDirectory() { return mDir; }
+
+	/** @return die Summe der Dateigren laut Index */
+	public synchronized long getTotal() { return mTotal; }
+
+	/** @return die Anzahl der Dateien im Index */
+	public synchronized int size() { return mEntries.size(); }
+
+
+	/**
+	 * @param bytes die Obergrenze fr den Cache; Default ist ein Zehntel der
+	 * 		Gre des Devices
+	 */
+	public synchronized void setQuota(long bytes) {
+		if (bytes<0) throw new IllegalArgumentException("bytes darf nicht negativ sein");
+		mQuota = bytes;
+		checkTrim();
+	}
+
+
+	/**
+	 * @param bytes so viel soll auf dem Device mindestens frei bleiben, sonst
+	 * 		wird auch unterhalb der Quota gelscht; Default 50 MB
+	 */
+	public void setFreeWatermark(long bytes) {
+		if (bytes<0) throw new IllegalArgumentException("bytes darf nicht negativ sein");
+		Device d;
+		synchronized (this) {
+			mFreeWatermark = bytes;
+			d = mDevice;
+			checkTrim();
+		}
+		FreeSpaceWatcher.remove(this);
+		FreeSpaceWatcher.add(d, bytes, bytes, this);
+	}
+
+
+	/** 
+	 * Vom {@link FreeSpaceWatcher}, wenn der freie Speicher die Wassermarke 
+	 * unter- oder wieder berschreitet; nicht selbst aufrufen.
+	 */
+	public void onSpaceLevel(Device d, int level, long free) {
+		if (level==LEVEL_OK) return;
+		synchronized (this) { checkTrim(); }
+	}
+
+
+	/**
+	 * Liefert eine Datei aus dem Cache und merkt den Zugriff.
+	 * @return die Datei oder null, falls nicht im Cache
+	 */
+	public synchronized File get(String name) {
+		if (mEntries.get(name)==null) return null; // get() ordnet schon neu ein
+		File f = new File(mDir, name);
+		if (!f.isFile()) {
+			// von auen gelscht
+			remove(name);
+			return null;
+		}
+		journal('A', name, 0);
+		return f;
+	}
+
+
+	/**
+	 * @return die Datei, unter der ein neuer Eintrag geschrieben werden soll;
+	 * 		kommt erst mit {@link #put(String)} in den Index
+	 */
+	public File newFile(String name) {
+		checkName(name);
+		return new File(mDir, name);
+	}
+
+
+	/**
+	 * Nimmt eine fertig geschriebene Datei in den Index auf und rumt bei
+	 * Bedarf im Hintergrund auf.
+	 */
+	public synchronized void put(String name) {
+		checkName(name);
+		long size = new File(mDir, name).length();
+		Entry e = mEntries.get(name);
+		if (e==null) {
+			mEntries.put(name, new Entry(size));
+		} else {
+			mTotal -= e.size;
+			e.size = size;
+		}
+		mTotal += size;
+		journal('P', name, size);
+		flush();
+		checkTrim();
+	}
+
+
+	/** lscht eine Datei aus Cache und Index */
+	public synchronized void remove(String name) {
+		Entry e = mEntries.remove(name);
+		if (e==null) return;
+		mTotal -= e.size;
+		new File(mDir, name).delete();
+		journal('D', name, 0);
+		flush();
+	}
+
+
+	/**
+	 * Lscht die am lngsten nicht benutzten Dateien, bis die Quota 
+	 * unterschritten und genug frei ist. Luft sonst von selbst im 
+	 * Hintergrund.
+	 * @return die Anzahl gelschter Dateien
+	 */
+	public int trim() {
+		// Opfer unter dem Lock aus dem Index nehmen, lschen dann ohne
+		ArrayList<String> victims = new ArrayList<String>();
+		synchronized (this) {
+			mTrimScheduled = false;
+			long target = mQuota/100*LOW_WATER;
+			long missing = missingFree();
+			for (Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator(); it.hasNext(); ) {
+				if (mTotal<=target && missing<=0) break;
+				Map.Entry<String, Entry> e = it.next();
+				it.remove();
+				mTotal -= e.getValue().size;
+				missing -= e.getValue().size;
+				journal('D', e.getKey(), 0);
+				victims.add(e.getKey());
+			}
+			if (victims.isEmpty()) return 0;
+			flush();
+		}
+		for (String name : victims) {
+			// inzwischen neu geschrieben? Dann ist die Datei schon die neue
+			synchronized (this) { if (mEntries.containsKey(name)) continue; }
+			new File(mDir, name).delete();
+		}
+		SpaceCache.expire(mDevice.getMountPoint());
+		synchronized (this) {
+			if (mJournalLines>2*mEntries.size()+1000) rewriteJournal();
+		}
+		return victims.size();
+	}
+
+
+	private void checkTrim() {
+		if (mTrimScheduled) return;
+		if (mTotal<=mQuota && missingFree()<=0) return;
+		mTrimScheduled = true;
+		executor().execute(new Runnable() {
+			public void run() { trim(); }
+		});
+	}
+
+
+	/** @return wie viel zur Wassermarke fehlt; 0, wenn das Device gerade nicht da ist */
+	private long missingFree() {
+		Device d = mDevice;
+		if (!d.isAvailable()) return 0;
+		return mFreeWatermark - d.getFreeUnreserved();
+	}
+
+
+	private static void checkName(String name) {
+		if (name==null || name.length()==0) throw new IllegalArgumentException("name darf nicht leer sein");
+		if (name.indexOf('/')>=0 || name.indexOf('\n')>=0 || name.startsWith("environment2.")) 
+			throw new IllegalArgumentException("ungltiger Name "+name);
+	}
+
+
+	// Journal ------------------------------------------------------------------------------------
+	// eine Zeile pro nderung: "P name size" (neu/gendert), "A name" (Zugriff), "D name" (gelscht)
+
+	private void load() {
+		File f = new File(mDir, JOURNAL);
+		if (!f.isFile()) {
+			// einmalig: was schon im Verzeichnis liegt, nach Alter sortiert bernehmen
+			File[] files = mDir.listFiles();
+			if (files!=null) {
+				Arrays.sort(files, new Comparator<File>() {
+					public int compare(File a, File b) {
+						long d = a.lastModified()-b.lastModified();
+						return d<0 ? -1 : d>0 ? 1 : 0;
+					}
+				});
+				for (File i : files) {
+					if (!i.isFile() || i.getName().startsWith("environment2.")) continue;
+					mEntries.put(i.getName(), new Entry(i.length()));
+					mTotal += i.length();
+				}
+			}
+			rewriteJournal();
+			return;
+		}
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+			String line;
+			while ((line = in.readLine())!=null) {
+				mJournalLines++;
+				if (line.length()<3 || line.charAt(1)!=' ') continue;
+				char op = line.charAt(0);
+				if (op=='P') {
+					int sp = line.lastIndexOf(' ');
+					if (sp<=2) continue;
+					String name = line.substring(2, sp);
+					long size;
+					try { size = Long.parseLong(line.substring(sp+1)); } catch (NumberFormatException e) { continue; }
+					Entry e = mEntries.put(name, new Entry(size));
+					if (e!=null) mTotal -= e.size;
+					mTotal += size;
+				} else if (op=='A') {
+					mEntries.get(line.substring(2));
+				} else if (op=='D') {
+					Entry e = mEntries.remove(line.substring(2));
+					if (e!=null) mTotal -= e.size;
+				}
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Journal unvollstndig: "+f, e);
+		} finally {
+			if (in!=null) try { in.close(); } catch (IOException e) { }
+		}
+		if (mJournalLines>2*mEntries.size()+1000) rewriteJournal();
+	}
+
+
+	private void journal(char op, String name, long size) {
+		mPending.append(op).append(' ').append(name);
+		if (op=='P') mPending.append(' ').append(size);
+		mPending.append('\n');
+		mJournalLines++;
+		if (mPending.length()>=PENDING_MAX) flush();
+	}
+
+
+	/** hngt die gesammelten Zeilen an das Journal an und schliet es gleich wieder */
+	private void flush() {
+		if (mPending.length()==0) return;
+		Writer out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(mDir, JOURNAL), true), "UTF-8"));
+			out.append(mPending);
+			out.close();
+			out = null;
+		} catch (IOException e) {
+			// z.B. Karte gerade entnommen; das Journal ist dann eben unvollstndig
+			Log.w(TAG, "kann Journal nicht schreiben", e);
+		} finally {
+			if (out!=null) try { out.close(); } catch (IOException e) { }
+			mPending.setLength(0);
+		}
+	}
+
+
+	/** schreibt das Journal neu mit einer Zeile pro Eintrag, in LRU-Reihenfolge */
+	private void rewriteJournal() {
+		File tmp = new File(mDir, JOURNAL+".tmp");
+		Writer out = null;
+		try {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+			for (Map.Entry<String, Entry> e : mEntries.entrySet()) 
+				out.write("P " + e.getKey() + ' ' + e.getValue().size + '\n');
+			out.close();
+			out = null;
+			if (!tmp.renameTo(new File(mDir, JOURNAL))) throw new IOException("rename fehlgeschlagen");
+			mJournalLines = mEntries.size();
+			// der Index im Speicher enthlt schon alles, was noch ausstand
+			mPending.setLength(0);
+		} catch (IOException e) {
+			Log.w(TAG, "kann Journal nicht neu schreiben", e);
+			tmp.delete();
+		} finally {
+			if (out!=null) try { out.close(); } catch (IOException e) { }
+		}
+	}
+
+
+	private static synchronized ExecutorService executor() {
+		if (mExecutor==null) mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Environment2-Cache");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return mExecutor;
+	}
+}
@@ -0,0 +1,72 @@
+package de.jockels.open;
+
+/**
+ * Die Standard-{@link PlacementPolicy}: Alle beschreibbaren Devices mit genug
+ * freiem Speicher bekommen Punkte, das mit den meisten gewinnt.
+ * <ul>
+ * <li>freier Speicher: bis zu 10 Punkte, je mehr nach dem Schreiben brig bleibt
+ * <li>Geschwindigkeit: bis zu 10 Punkte im Verhltnis zum schnellsten gemessenen
+ * 		Device, je nach {@link WriteRequest#getLatency()}; ungemessene Devices
+ * 		bekommen die Hlfte
+ * <li>entnehmbar: 2 Punkte wie bisher bei getCardXXX(), auer bei
+ * 		{@link WriteRequest#isDurable()}, dann 5 Punkte Abzug
+ * </ul>
+ * Dabei werden nur zwischengespeicherte Werte benutzt ({@link Device#getSize()},
+ * {@link Device#getProfile()}); ein statfs gibt es nur fr Devices, deren 
+ * Eintrag lter als {@link Environment2#setSpaceMaxAge(long)} ist. Als 
+ * frei zhlt, was nicht schon mit {@link Device#reserve(long)} vorgemerkt ist.
+ *
+ * @since 1.6
+ */
+final class DefaultPlacementPolicy implements PlacementPolicy {
+	/** so viel soll nach dem Schreiben mindestens noch frei sein */
+	static final long MIN_HEADROOM = 1024*1024;
+
+	public Device choose(WriteRequest r, Device[] candidates) {
+		int latency = r.getLatency();
+		// erst das schnellste Device als Mastab, die Werte pro Device merken
+		long best = 0;
+		long[] speeds = null;
+		if (latency!=WriteRequest.LATENCY_NORMAL) {
+			speeds = new long[candidates.length];
+			for (int i=0; i<candidates.length; i++) {
+				speeds[i] = speed(candidates[i].getProfile(), latency);
+				if (speeds[i]>best) best = speeds[i];
+			}
+		}
+
+		Device winner = null;
+		float winnerScore = Float.NEGATIVE_INFINITY;
+		for (int i=0; i<candidates.length; i++) {
+			Device d = candidates[i];
+			if (!d.isAvailable() || !d.isWriteable()) continue;
+			boolean removable = d.isRemovable();
+			if (removable && r.mustSurviveRemoval()) continue;
+			Size s = d.getSize();
+			if (s==null) continue;
+			long left = d.getFreeUnreserved() - r.getSize();
+			if (left<MIN_HEADROOM) continue;
+
+			float score = s.getTotal()>0 ? 10f*left/s.getTotal() : 0;
+			if (best>0) {
+				score += speeds[i]>0 ? 10f*speeds[i]/best : 5;
+			}
+			if (removable) score += r.isDurable() ? -5 : 2;
+			if (score>winnerScore) {
+				winner = d;
+				winnerScore = score;
+			}
+		}
+		return winner;
+	}
+
+
+	/** @return je grer, desto schneller; 0 falls unbekannt */
+	private static long speed(StorageProfile p, int latency) {
+		if (p==null) return 0;
+		if (latency==WriteRequest.LATENCY_BULK) return p.getSequentialWrite();
+		// Latenz in Mikrosekunden umdrehen, damit mehr besser ist
+		long us = p.getSyncLatency();
+		return us<=0 ? 0 : 1000000000L/us;
+	}
+}
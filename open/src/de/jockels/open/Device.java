@@ -1,6 +1,9 @@
 package de.jockels.open;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.os.Environment;
@@ -23,12 +26,119 @@ import android.os.Environment;
  * 
  */
 public abstract class Device  {
-	protected Size mSize;
+	// volatile, weil updateState() die Werte ndert, whrend andere Threads lesen
+	protected volatile Size mSize;
 	protected String mMountPoint;
+	// fr DeviceRefresher
+	volatile boolean mResponsive = true;
+	// fr StorageProfiler.cached(), spart Schlssel und Lock pro getProfile()
+	volatile StorageProfiler.Cached mProfile;
+	// App-Verzeichnisse pro Unterverzeichnis, gltig bis zur nchsten nderung des Mount-Zustands
+	private final HashMap<String, File> mDirs = new HashMap<String, File>();
+	private String mDirsPackage = null;
+	// Summe der offenen Reservierungen in Bytes pro MountPoint; statisch, weil
+	// jeder Rescan neue Device-Objekte erzeugt, die Reservierungen aber bleiben.
+	// Ein Zhler mit RETIRED ist verworfen und wird nicht mehr benutzt.
+	private static final ConcurrentHashMap<String, AtomicLong> mLedger = new ConcurrentHashMap<String, AtomicLong>();
+	private static final long RETIRED = Long.MIN_VALUE;
 	
 	// Zugriff auf interne Felder -------------------------------------------------------------------
 	public final File getFile() { return new File(mMountPoint); }
-	public final Size getSize() { return mSize; }
+
+	/**
+	 * Liefert Gre und freien Speicher. Der freie Speicher kommt aus einem 
+	 * Cache und ist hchstens so alt wie in {@link Environment2#setSpaceMaxAge(long)}
+	 * eingestellt, die Gesamtgre wird nur bei nderungen des Mount-Zustands
+	 * neu gelesen. Kann daher auch in Schleifen aufgerufen werden.
+	 * @return die Gre oder null, falls das Device noch nie verfgbar war
+	 */
+	public final Size getSize() { return getSize(false); }
+
+	/**
+	 * Wie {@link #getSize()}, aber mit der Mglichkeit, das Lesen des aktuellen
+	 * freien Speichers zu erzwingen.
+	 * @param fresh true, um den Cache zu umgehen
+	 * @since 1.6
+	 */
+	public final Size getSize(boolean fresh) {
+		if (mSize!=null && isAvailable()) mSize = SpaceCache.get(mMountPoint, fresh);
+		return mSize;
+	}
+
+	/**
+	 * Merkt Speicherplatz fr einen Schreibvorgang vor. Mehrere Threads 
+	 * knnen gleichzeitig reservieren, ohne zusammen mehr als den freien 
+	 * Speicher zu bekommen; dazu wird ohne Lock auf einem Zhler pro 
+	 * MountPoint gearbeitet, so dass Reservierungen auch einen Rescan 
+	 * berstehen. Andere Apps kennen die Reservierung natrlich nicht.
+	 * @param bytes die Gre in Bytes
+	 * @return die Reservierung oder null, falls nicht genug Platz frei ist
+	 * 		oder das Device nicht verfgbar ist
+	 * @since 1.6
+	 */
+	public final Reservation reserve(long bytes) {
+		if (bytes<0) throw new IllegalArgumentException("bytes darf nicht negativ sein");
+		Size s = getSize();
+		if (s==null || !isAvailable() || !isWriteable()) return null;
+		long free = s.getFree();
+		AtomicLong ledger = ledger(mMountPoint);
+		for (;;) {
+			long r = ledger.get();
+			if (r==RETIRED) {
+				// gerade von forgetLedger() verworfen, also den neuen holen
+				ledger = ledger(mMountPoint);
+				continue;
+			}
+			if (free-r<bytes) return null;
+			if (ledger.compareAndSet(r, r+bytes)) return new Reservation(this, ledger, bytes);
+		}
+	}
+	
+	
+	/**
+	 * @return der freie Speicher abzglich der offenen Reservierungen, 
+	 * 		0 falls nicht verfgbar
+	 * @see #reserve(long)
+	 * @since 1.6
+	 */
+	public final long getFreeUnreserved() {
+		Size s = getSize();
+		if (s==null || !isAvailable()) return 0;
+		return Math.max(0, s.getFree()-getReserved());
+	}
+	
+	
+	/** @return die Summe der offenen Reservierungen in Bytes */
+	public final long getReserved() {
+		AtomicLong l = mLedger.get(mMountPoint);
+		return l==null ? 0 : Math.max(0, l.get());
+	}
+	
+	
+	/** 
+	 * vergisst den Zhler eines MountPoints, den ein Rescan nicht mehr gefunden 
+	 * hat, aber nur ohne offene Reservierungen; die noch offenen halten ihren
+	 * Zhler ohnehin selbst
+	 */
+	static void forgetLedger(String mountPoint) {
+		AtomicLong l = mLedger.get(mountPoint);
+		// erst per CAS stilllegen, damit kein reserve() mehr auf diesem Zhler landet
+		if (l!=null && l.compareAndSet(0, RETIRED)) mLedger.remove(mountPoint, l);
+	}
+
+
+	/** @return der Reservierungszhler fr den MountPoint, wird bei Bedarf angelegt */
+	private static AtomicLong ledger(String mountPoint) {
+		AtomicLong l = mLedger.get(mountPoint);
+		if (l==null) {
+			AtomicLong n = new AtomicLong(0);
+			l = mLedger.putIfAbsent(mountPoint, n);
+			if (l==null) l = n;
+		}
+		return l;
+	}
+	
+	
 	public final String getMountPoint() { return mMountPoint; }
 	public abstract String getName();
 	public abstract boolean isRemovable();
@@ -42,6 +152,44 @@ public abstract class Device  {
 	 */
 	protected void updateState() {}
 	
+	/**
+	 * Zeigt an, ob das Device bei der letzten Aktualisierung rechtzeitig 
+	 * geantwortet hat. Ein Device, das nicht antwortet (z.B. eine halb entnommene
+	 * Karte), gilt bis zur nchsten erfolgreichen Aktualisierung als nicht 
+	 * verfgbar.
+	 * @return false, wenn {@link Environment2#updateDevices()} beim letzten Mal
+	 * 		nicht auf das Device warten konnte
+	 * @since 1.6
+	 */
+	public final boolean isResponsive() { return mResponsive; }
+	
+	
+	/**
+	 * Liefert das Ergebnis einer frheren Geschwindigkeitsmessung dieses
+	 * Datentrgers, ohne selbst etwas zu messen.
+	 * @return das Profil oder null, falls noch nicht gemessen
+	 * @see #measureProfile(Context, boolean)
+	 * @since 1.6
+	 */
+	public final StorageProfile getProfile() { return StorageProfiler.cached(this); }
+	
+	
+	/**
+	 * Misst, wie schnell das Device schreibt und liest, mit einer Temp-Datei
+	 * in {@link #getCacheDir(Context)}. Die Messung dauert bis zu drei Sekunden
+	 * und sollte daher nicht im UI-Thread laufen. Das Ergebnis wird pro 
+	 * Datentrger aufgehoben, auch ber einen Neustart der App hinweg; ein 
+	 * erneuter Aufruf misst also nur, wenn eine andere Karte steckt.
+	 * @param ctx der Context der App
+	 * @param force true, um auf jeden Fall neu zu messen
+	 * @return das Profil oder null, falls das Device nicht beschreibbar ist
+	 * 		oder die Messung fehlschlug
+	 * @since 1.6
+	 */
+	public final StorageProfile measureProfile(Context ctx, boolean force) {
+		return StorageProfiler.profile(ctx, this, force);
+	}
+	
 	
 	/**
 	 * Liefert analog zu Context.getXXXFilesDir ein Datenverzeichnis auf
@@ -99,13 +247,59 @@ public abstract class Device  {
 	 * 	vorhanden, wird das Verzeichnis angelegt
 	 */
 	protected File getFilesDirLow(Context ctx, String s) {
-		if (s!=null && !s.startsWith("/")) s = "/" + s;
-		File f = new File(getMountPoint() + Environment2.PATH_PREFIX + ctx.getPackageName() + s);
-		if (!f.isDirectory() && isWriteable()) 
-			f.mkdirs(); 
+		File f = lookupDir(ctx, s);
+		if (f!=null) return f;
+		String sub = s;
+		if (sub!=null && !sub.startsWith("/")) sub = "/" + sub;
+		f = new File(getMountPoint() + Environment2.PATH_PREFIX + ctx.getPackageName() + sub);
+		if (f.isDirectory()) 
+			rememberDir(s, f);
+		else if (isWriteable()) {
+			Metrics.count(MetricsSnapshot.COUNTER_MKDIRS);
+			if (f.mkdirs()) rememberDir(s, f);
+		}
 		return f;
 	}
 
 
+	/**
+	 * Sucht ein schon einmal ermitteltes und angelegtes App-Verzeichnis, damit
+	 * nicht jeder Aufruf von getFilesDir() isDirectory() und mkdirs() braucht.
+	 * @param s das Unterverzeichnis wie an getFilesDir() bergeben, kann null sein
+	 * @return das Verzeichnis oder null, falls noch nicht bekannt
+	 * @since 1.6
+	 */
+	protected final File lookupDir(Context ctx, String s) {
+		String pkg = ctx.getPackageName();
+		synchronized (mDirs) {
+			if (!pkg.equals(mDirsPackage)) {
+				mDirs.clear();
+				mDirsPackage = pkg;
+			}
+			return mDirs.get(s);
+		}
+	}
+
+
+	/** 
+	 * Merkt sich ein existierendes App-Verzeichnis fr {@link #lookupDir(Context, String)}.
+	 * @since 1.6 
+	 */
+	protected final void rememberDir(String s, File f) {
+		synchronized (mDirs) { mDirs.put(s, f); }
+	}
+
+
+	/**
+	 * Vergisst alle gemerkten App-Verzeichnisse; aus updateState() aufzurufen, 
+	 * wenn sich der Mount-Zustand gendert hat, denn nach dem erneuten Mounten 
+	 * mssen die Verzeichnisse evtl. wieder angelegt werden.
+	 * @since 1.6
+	 */
+	protected final void forgetDirs() {
+		synchronized (mDirs) { mDirs.clear(); }
+	}
+
+
 }
 
@@ -4,7 +4,6 @@ import java.io.File;
 
 import android.content.Context;
 import android.os.Environment;
-import android.text.TextUtils.SimpleStringSplitter;
 
 /**
  * Ein {@link Device}, das ein speziell gemountetes Gert beschreibt, z.B.
@@ -16,45 +15,89 @@ import android.text.TextUtils.SimpleStringSplitter;
  *
  */
 class DeviceDiv extends Device {
-	private String mLabel, mName;
-	private boolean mAvailable, mWriteable;
+	private String mLabel;
+	private volatile String mName;
+	private volatile boolean mAvailable, mWriteable;
+	private DeviceExternal mPrimary; // fr die Korrektur in updateState()
+	private String mFsType, mMountOptions;
+	private int mMajor = -1, mMinor = -1;
 	
 
 	/**
-	 * Constructor, der eine Zeile aus vold.fstab bekommt (dev_mount schon weggelesen)
-	 * @param sp der StringSplitter, aus dem die Zeile gelesen wird, wobei
-	 * 		"dev_mount" schon weggelesen sein muss.
-	 * @return this fr Verkettungen wie {@code return new Device().initFrom...() } 
+	 * Constructor mit den Daten einer Zeile aus vold.fstab
+	 * @param label das Label aus der dev_mount-Zeile
+	 * @param mountPoint der MountPoint aus der dev_mount-Zeile
+	 * @param primary die primre SD-Karte desselben Scans
+	 * @see VoldParser
 	 */
-	DeviceDiv(SimpleStringSplitter sp) {
-		mLabel = sp.next().trim();
-		mMountPoint = sp.next().trim();
+	DeviceDiv(String label, String mountPoint, DeviceExternal primary) {
+		mLabel = label;
+		mMountPoint = mountPoint;
+		mPrimary = primary;
+		updateState();
+	}
+	
+	/**
+	 * Constructor mit den Daten einer Zeile aus /proc/self/mountinfo
+	 * @param e der Eintrag; das Label ist der letzte Teil des MountPoints
+	 * @param primary die primre SD-Karte desselben Scans
+	 * @see MountInfo
+	 * @since 1.6
+	 */
+	DeviceDiv(MountInfo.Entry e, DeviceExternal primary) {
+		mMountPoint = e.mountPoint;
+		mPrimary = primary;
+		mLabel = new File(e.mountPoint).getName();
+		mFsType = e.fsType;
+		mMountOptions = e.options;
+		mMajor = e.major;
+		mMinor = e.minor;
 		updateState();
 	}
 	
 	@Override
-	public boolean isAvailable() { return mAvailable; }
+	public boolean isAvailable() { return mAvailable && mResponsive; }
 
 	@Override
 	public boolean isWriteable() { return mWriteable; }
 
+	/** fr wiederverwendete Devices bei einem neuen Scan */
+	final void setPrimary(DeviceExternal primary) { mPrimary = primary; }
+
 	@Override
 	protected void updateState() {
 		File f = new File(mMountPoint);
 		setName(f.getName()); // letzter Teil des Pfads
-		if (mAvailable = f.isDirectory() && f.canRead()) { // ohne canRead() klappts z.B. beim Note2 nicht
-			mSize = Size.getSpace(f); 
-			mWriteable = f.canWrite();
+		// erst lokal ausrechnen, damit Leser in anderen Threads keine Zwischenstnde sehen
+		boolean available, writeable;
+		MountProbe probe = MountProbe.get();
+		if (available = probe.isReadable(f)) {
+			mSize = SpaceCache.refresh(mMountPoint); 
+			writeable = probe.isWriteable(f);
 			// Korrektur, falls in /mnt/sdcard gemountet (z.B. Samsung)
-			if (mMountPoint.startsWith(Environment2.mPrimary.mMountPoint) && mSize.equals(Environment2.mPrimary.mSize)) 
-				mAvailable = mWriteable = false;
+			if (mMountPoint.startsWith(mPrimary.getMountPoint()) && mSize.equals(mPrimary.mSize)) 
+				available = writeable = false;
 		} else 
-			mWriteable = false;
-		
+			writeable = false;
+		if (available!=mAvailable || writeable!=mWriteable) forgetDirs();
+		mWriteable = writeable;
+		mAvailable = available;
 	}
 
 	public final String getLabel() { return mLabel; }
 
+	/** @return das Dateisystem (z.B. "vfat") oder null, falls aus vold.fstab gelesen */
+	public final String getFsType() { return mFsType; }
+
+	/** @return die Mount-Optionen (z.B. "rw,nosuid,nodev") oder null, falls aus vold.fstab gelesen */
+	public final String getMountOptions() { return mMountOptions; }
+
+	/** @return die major-Nummer des Block-Devices oder -1, falls aus vold.fstab gelesen */
+	public final int getMajor() { return mMajor; }
+
+	/** @return die minor-Nummer des Block-Devices oder -1, falls aus vold.fstab gelesen */
+	public final int getMinor() { return mMinor; }
+
 	public String getName() { return mName; }
 	protected final void setName(String name) { mName = name; }
 
@@ -78,7 +121,8 @@ class DeviceDiv extends Device {
 
 	@Override
 	public String getState() {
-		if (mAvailable)
+		// wie isAvailable(): eine nicht antwortende Karte gilt als entnommen
+		if (isAvailable())
 			return mWriteable ? Environment.MEDIA_MOUNTED : Environment.MEDIA_MOUNTED_READ_ONLY;
 		else 
 			return Environment.MEDIA_REMOVED;
@@ -0,0 +1,56 @@
+package de.jockels.open;
+
+/**
+ * Eine nderung an einem {@link Device}, die {@link Environment2} beim Vergleich
+ * zweier aufeinanderfolgender Stnde festgestellt hat. Enthlt den Zustand vor
+ * und nach der nderung, so dass ein {@link DeviceListener} nicht selbst 
+ * {@link Environment2#getDevices(String, boolean, boolean, boolean)} abfragen
+ * und vergleichen muss.
+ *
+ * @see Environment2#addDeviceListener(DeviceListener)
+ * @since 1.6
+ */
+public final class DeviceEvent {
+	/** Device ist (wieder) verfgbar, z.B. Karte eingesteckt; {@link #getBefore()} kann null sein */
+	public static final int ADDED = 1;
+	/** Device ist nicht mehr verfgbar, z.B. Karte entnommen; {@link #getAfter()} kann null sein */
+	public static final int REMOVED = 2;
+	/** Device ist weiterhin verfgbar, aber nicht mehr beschreibbar */
+	public static final int READ_ONLY = 3;
+	/** Device ist wieder beschreibbar */
+	public static final int WRITEABLE = 4;
+	/** der freie Speicher hat die Schwelle aus {@link Environment2#setLowSpaceThreshold(long)} unterschritten */
+	public static final int SPACE_LOW = 5;
+	/** der freie Speicher liegt wieder ber der Schwelle */
+	public static final int SPACE_OK = 6;
+	/** die Zweit-SD ist eine andere geworden (oder weggefallen: dann ist {@link #getDevice()} null) */
+	public static final int SECONDARY_CHANGED = 7;
+
+	private final int mType;
+	private final Device mDevice;
+	private final DeviceState mBefore, mAfter;
+
+	DeviceEvent(int type, Device device, DeviceState before, DeviceState after) {
+		mType = type;
+		mDevice = device;
+		mBefore = before;
+		mAfter = after;
+	}
+
+	/** @return einer der Werte {@link #ADDED}, {@link #REMOVED} usw. */
+	public int getType() { return mType; }
+
+	/** @return das Device im neuen Stand; bei REMOVED evtl. das alte, bei SECONDARY_CHANGED evtl. null */
+	public Device getDevice() { return mDevice; }
+
+	/** @return der Zustand vor der nderung oder null */
+	public DeviceState getBefore() { return mBefore; }
+
+	/** @return der Zustand nach der nderung oder null */
+	public DeviceState getAfter() { return mAfter; }
+
+	@Override
+	public String toString() {
+		return "DeviceEvent[" + mType + ": " + mBefore + " -> " + mAfter + "]";
+	}
+}
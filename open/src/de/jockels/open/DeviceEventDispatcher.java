@@ -0,0 +1,131 @@
+package de.jockels.open;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Vergleicht nach jeder Aktualisierung den neuen Stand der Devices mit dem
+ * vorigen und verteilt die Unterschiede als {@link DeviceEvent} an alle
+ * {@link DeviceListener}. Der Vergleich luft einmal pro Aktualisierung,
+ * egal wie viele Listener es gibt. Devices werden ber ihren MountPoint
+ * zugeordnet, da ein Rescan neue Objekte erzeugt.
+ * <p>
+ * Rescans und {@link Environment2#updateDevices()} laufen unabhngig 
+ * voneinander; ein Stand, der lter ist als der zuletzt verteilte 
+ * ({@link DeviceRegistry#generation}), wird daher verworfen, statt falsche 
+ * REMOVED/ADDED-Paare zu erzeugen. Aktualisierungen desselben Stands werden 
+ * verteilt. Aufgerufen wird ohne das Scan-Lock von {@link Environment2}.
+ *
+ * @since 1.6
+ */
+final class DeviceEventDispatcher {
+	private static final String TAG = "DeviceEventDispatcher";
+	/** Default fr {@link #setLowSpaceThreshold(long)}: 50 MB */
+	static final long DEFAULT_THRESHOLD = 50*1024*1024;
+
+	private static final CopyOnWriteArrayList<DeviceListener> mListeners = new CopyOnWriteArrayList<DeviceListener>();
+	private static HashMap<String, DeviceState> mLast = null;
+	private static HashMap<String, Device> mLastDevices = null;
+	private static String mLastSecondary = null;
+	private static long mLastGeneration = 0;
+	private static volatile long mThreshold = DEFAULT_THRESHOLD;
+
+	private DeviceEventDispatcher() {}
+
+
+	static void addListener(DeviceListener l) {
+		if (l==null) throw new IllegalArgumentException("listener darf nicht null sein");
+		mListeners.addIfAbsent(l);
+	}
+
+	static void removeListener(DeviceListener l) {
+		mListeners.remove(l);
+	}
+
+	static void setLowSpaceThreshold(long bytes) {
+		if (bytes<0) throw new IllegalArgumentException("bytes darf nicht negativ sein");
+		mThreshold = bytes;
+	}
+
+
+	/**
+	 * Merkt sich den Stand und verteilt die Unterschiede zum vorigen. Der erste
+	 * Aufruf liefert nur die Basis fr den Vergleich.
+	 */
+	static synchronized void publish(DeviceRegistry r) {
+		if (r.generation<mLastGeneration) return; // berholt
+		mLastGeneration = r.generation;
+		HashMap<String, DeviceState> states = new HashMap<String, DeviceState>();
+		HashMap<String, Device> devices = new HashMap<String, Device>();
+		add(r.primary, states, devices);
+		for (Device d : r.devices) add(d, states, devices);
+		String secondary = r.secondary==null ? null : r.secondary.getMountPoint();
+
+		if (mLast!=null && !mListeners.isEmpty()) {
+			ArrayList<DeviceEvent> events = new ArrayList<DeviceEvent>();
+			for (String mp : states.keySet()) 
+				diff(devices.get(mp), mLast.get(mp), states.get(mp), events);
+			for (String mp : mLast.keySet()) {
+				// ganz aus der Liste verschwunden
+				DeviceState before = mLast.get(mp);
+				if (!states.containsKey(mp) && before.isAvailable()) 
+					events.add(new DeviceEvent(DeviceEvent.REMOVED, mLastDevices.get(mp), before, null));
+			}
+			if (!TextUtils.equals(mLastSecondary, secondary))
+				events.add(new DeviceEvent(DeviceEvent.SECONDARY_CHANGED, r.secondary, 
+						mLastSecondary==null ? null : mLast.get(mLastSecondary), 
+						secondary==null ? null : states.get(secondary)));
+			dispatch(events);
+		}
+		mLast = states;
+		mLastDevices = devices;
+		mLastSecondary = secondary;
+	}
+
+
+	private static void add(Device d, HashMap<String, DeviceState> states, HashMap<String, Device> devices) {
+		states.put(d.getMountPoint(), new DeviceState(d));
+		devices.put(d.getMountPoint(), d);
+	}
+
+
+	private static void diff(Device d, DeviceState before, DeviceState after, ArrayList<DeviceEvent> events) {
+		boolean was = before!=null && before.isAvailable();
+		if (!was) {
+			if (after.isAvailable()) events.add(new DeviceEvent(DeviceEvent.ADDED, d, before, after));
+			return;
+		}
+		if (!after.isAvailable()) {
+			events.add(new DeviceEvent(DeviceEvent.REMOVED, d, before, after));
+			return;
+		}
+		if (before.isWriteable() && !after.isWriteable())
+			events.add(new DeviceEvent(DeviceEvent.READ_ONLY, d, before, after));
+		else if (!before.isWriteable() && after.isWriteable())
+			events.add(new DeviceEvent(DeviceEvent.WRITEABLE, d, before, after));
+		long t = mThreshold;
+		if (t>0) {
+			if (before.getFree()>=t && after.getFree()<t)
+				events.add(new DeviceEvent(DeviceEvent.SPACE_LOW, d, before, after));
+			else if (before.getFree()<t && after.getFree()>=t)
+				events.add(new DeviceEvent(DeviceEvent.SPACE_OK, d, before, after));
+		}
+	}
+
+
+	private static void dispatch(ArrayList<DeviceEvent> events) {
+		for (DeviceEvent e : events) {
+			for (DeviceListener l : mListeners) {
+				try {
+					l.onDeviceEvent(e);
+				} catch (RuntimeException ex) {
+					Log.e(TAG, "Listener fehlgeschlagen", ex);
+				}
+			}
+		}
+	}
+}
@@ -24,8 +24,8 @@ import android.os.Environment;
  *
  */
 class DeviceExternal extends Device {
-	private boolean mRemovable; 
-	private String mState;
+	private volatile boolean mRemovable; 
+	private volatile String mState;
 	
 	/**
 	 * liest Parameter aus {@link Environment#getExternalStorageDirectory()},
@@ -52,11 +52,10 @@ class DeviceExternal extends Device {
 	
 	@Override
 	protected void updateState() {
+		String old = mState;
 		mState = Environment.getExternalStorageState();
-		if (isAvailable()) {
-			File f = new File(mMountPoint);
-			mSize = Size.getSpace(f);
-		}
+		if (old==null || !old.equals(mState)) forgetDirs();
+		if (isAvailable()) mSize = SpaceCache.refresh(mMountPoint);
 	}
 	
 	
@@ -70,7 +69,7 @@ class DeviceExternal extends Device {
 
 	@Override
 	public boolean isAvailable() {
-		return (Environment.MEDIA_MOUNTED.equals(mState) || Environment.MEDIA_MOUNTED_READ_ONLY.equals(mState));
+		return mResponsive && (Environment.MEDIA_MOUNTED.equals(mState) || Environment.MEDIA_MOUNTED_READ_ONLY.equals(mState));
 	}
 
 	@Override
@@ -86,9 +85,16 @@ class DeviceExternal extends Device {
 	@TargetApi(Build.VERSION_CODES.FROYO)
 	@Override
 	public File getFilesDir(Context ctx, String s) { 
-		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO) 
-			return ctx.getExternalFilesDir(s); 
-		else 
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO) {
+			File f = lookupDir(ctx, s);
+			if (f==null) {
+				// legt das Verzeichnis an und liefert null, wenn das nicht klappt
+				Metrics.count(MetricsSnapshot.COUNTER_MKDIRS);
+				f = ctx.getExternalFilesDir(s);
+				if (f!=null) rememberDir(s, f);
+			}
+			return f;
+		} else 
 			return getFilesDirLow(ctx, s);
 	}
 
@@ -116,6 +122,9 @@ class DeviceExternal extends Device {
 
 	
 	@Override
-	public String getState() { return mState; }
+	public String getState() { 
+		// wie isAvailable(): eine nicht antwortende Karte gilt als entnommen
+		return mResponsive ? mState : Environment.MEDIA_REMOVED; 
+	}
 
 }
@@ -0,0 +1,99 @@
+package de.jockels.open;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Abfrage-Index fr einen {@link DeviceRegistry}-Stand, damit
+ * {@link Environment2#getDevices(String, boolean, boolean, boolean)} nicht bei
+ * jedem Aufruf Listen anlegt und alle Namen klein schreibt. Die Namen liegen
+ * hier schon klein geschrieben vor, die Verfgbarkeit als Flag; die Ergebnisse
+ * ohne Suchbegriff werden gleich beim Anlegen fr alle Kombinationen der
+ * Parameter erzeugt, die mit Suchbegriff beim ersten Bedarf. Ein wiederholter
+ * Aufruf erzeugt so keine Objekte mehr und braucht kein Lock.
+ * <p>
+ * Ein Index ist unvernderlich. Da sich Name und Zustand der Devices bei 
+ * {@link Device#updateState()} ndern knnen, zhlt {@link #invalidateAll()}
+ * eine Generation hoch, und {@link DeviceRegistry#index()} ersetzt einen 
+ * veralteten Index durch einen neuen.
+ *
+ * @since 1.6
+ */
+final class DeviceIndex {
+	/** mehr verschiedene Suchbegriffe werden nicht aufgehoben */
+	private static final int MAX_KEYS = 16;
+	/** wird bei jeder Zustandsnderung eines Devices erhht */
+	private static final AtomicInteger mGeneration = new AtomicInteger(0);
+
+	/** der Stand von {@link #invalidateAll()}, zu dem der Index passt */
+	final int generation;
+	private final DeviceExternal mPrimary;
+	private final DeviceDiv[] mDevices;
+	private final String[] mNames;
+	private final boolean[] mAvailable;
+	private final boolean mPrimaryAvailable;
+	// ohne key: Index aus available/intern/data
+	private final Device[][] mAll = new Device[8][];
+	// Suchbegriff wie bergeben -> Ergebnisse wie in mAll
+	private final ConcurrentHashMap<String, Device[][]> mByKey = new ConcurrentHashMap<String, Device[][]>();
+
+	DeviceIndex(DeviceExternal primary, DeviceDiv[] devices) {
+		generation = mGeneration.get();
+		mPrimary = primary;
+		mDevices = devices;
+		mNames = new String[devices.length];
+		mAvailable = new boolean[devices.length];
+		mPrimaryAvailable = primary.isAvailable();
+		for (int i=0; i<devices.length; i++) {
+			String name = devices[i].getName();
+			mNames[i] = name==null ? "" : name.toLowerCase();
+			mAvailable[i] = devices[i].isAvailable();
+		}
+		for (int slot=0; slot<mAll.length; slot++) 
+			mAll[slot] = collect(null, (slot & 1)!=0, (slot & 2)!=0, (slot & 4)!=0);
+	}
+
+
+	/** verwirft die Ergebnisse aller Indizes; nach jedem updateState() aufrufen */
+	static void invalidateAll() {
+		mGeneration.incrementAndGet();
+	}
+
+	/** @return true, wenn sich seit dem Anlegen ein Device gendert hat */
+	boolean isStale() {
+		return generation!=mGeneration.get();
+	}
+
+
+	/**
+	 * Liefert die passenden Devices. Das Array wird wiederverwendet und darf
+	 * nicht verndert werden.
+	 */
+	Device[] query(String key, boolean available, boolean intern, boolean data) {
+		int slot = (available ? 1 : 0) | (intern ? 2 : 0) | (data ? 4 : 0);
+		if (key==null) return mAll[slot];
+		Device[][] results = mByKey.get(key);
+		if (results==null) {
+			if (mByKey.size()>=MAX_KEYS) mByKey.clear();
+			results = new Device[8][];
+			Device[][] r = mByKey.putIfAbsent(key, results);
+			if (r!=null) results = r;
+		}
+		// bei gleichzeitigem Aufruf evtl. zweimal gleich berechnet, was nicht schadet
+		Device[] res = results[slot];
+		if (res==null) res = results[slot] = collect(key.toLowerCase(), available, intern, data);
+		return res;
+	}
+
+
+	private Device[] collect(String key, boolean available, boolean intern, boolean data) {
+		ArrayList<Device> temp = new ArrayList<Device>(mDevices.length+2);
+		if (data) temp.add(Environment2.getInternalStorage());
+		if (intern && (!available || mPrimaryAvailable)) temp.add(mPrimary);
+		for (int i=0; i<mDevices.length; i++) {
+			if ( ((key==null) || mNames[i].contains(key)) && (!available || mAvailable[i]) ) temp.add(mDevices[i]);
+		}
+		return temp.toArray(new Device[temp.size()]);
+	}
+}
@@ -34,7 +34,7 @@ class DeviceIntern extends Device {
 	DeviceIntern() {
 		File f = Environment.getDataDirectory();
 		mMountPoint = f.getAbsolutePath();
-		mSize = Size.getSpace(f);
+		mSize = SpaceCache.get(mMountPoint, false);
 	}
 
 	@Override
@@ -59,8 +59,13 @@ class DeviceIntern extends Device {
 		if (s==null)
 			return getFilesDir(ctx);
 		else {
-			File f = new File(ctx.getFilesDir(), s);
-			f.mkdir();
+			// /data ndert seinen Zustand nie, einmal angelegt bleibt also gltig
+			File f = lookupDir(ctx, s);
+			if (f==null) {
+				f = new File(ctx.getFilesDir(), s);
+				Metrics.count(MetricsSnapshot.COUNTER_MKDIRS);
+				if (f.mkdir() || f.isDirectory()) rememberDir(s, f);
+			}
 			return f;
 		}
 	}
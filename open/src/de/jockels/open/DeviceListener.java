@@ -0,0 +1,17 @@
+package de.jockels.open;
+
+/**
+ * Bekommt die nderungen an den Devices mitgeteilt, siehe
+ * {@link Environment2#addDeviceListener(DeviceListener)}.
+ *
+ * @since 1.6
+ */
+public interface DeviceListener {
+	/**
+	 * Wird nach einem Rescan oder {@link Environment2#updateDevices()} fr jede
+	 * festgestellte nderung aufgerufen, und zwar in dem Thread, in dem die
+	 * Aktualisierung lief (also meist nicht im UI-Thread).
+	 * @param e die nderung
+	 */
+	void onDeviceEvent(DeviceEvent e);
+}
@@ -0,0 +1,316 @@
+package de.jockels.open;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Verschiebt die App-Daten ({@link Device#getFilesDir(Context)}) von einem
+ * Device auf ein anderes, etwa wenn eine Karte eingesteckt oder in
+ * {@link de.jockels.open.pref.DevicesListPreference} ein anderes Ziel 
+ * gewhlt wurde.
+ * <p>
+ * Ablauf:
+ * <ol>
+ * <li>Vor dem Start wird geprft und reserviert ({@link Device#reserve(long)}),
+ * 		ob auf dem Ziel genug Platz ist.
+ * <li>Die Dateien werden parallel mit {@link FileChannel#transferTo} in ein
+ * 		Zwischenverzeichnis auf dem Ziel kopiert, jede fertige Datei wird mit
+ * 		ihrer Gre geprft und im Journal vermerkt.
+ * <li>Erst wenn alle Dateien da sind, werden sie ins Ziel umbenannt (auf
+ * 		demselben Dateisystem atomar), auch leere Verzeichnisse angelegt und 
+ * 		danach die Quellen gelscht.
+ * </ol>
+ * Bricht die Migration ab (Absturz, MEDIA_BAD_REMOVAL), setzt ein neuer 
+ * Aufruf von {@link #run()} anhand des Journals dort fort, wo sie stehen
+ * geblieben ist.
+ *
+ * @see Environment2#createMigration(Context, Device, Device)
+ * @since 1.6
+ */
+public final class DeviceMigration {
+	private static final String TAG = "DeviceMigration";
+	static final String STAGE = ".e2migration";
+	static final String JOURNAL = ".e2migration.journal";
+	private static final int THREADS = 3;
+	private static final long TERMINATION_WAIT = 10000;
+
+	private final File mFromRoot, mToRoot, mStage, mJournalFile;
+	private final Device mTo;
+	private boolean mDeleteSource = true;
+	private final AtomicLong mDone = new AtomicLong(0);
+	private volatile long mTotal = 0;
+	private FileOutputStream mJournal = null;
+	private final Object mJournalLock = new Object();
+
+
+	DeviceMigration(Context ctx, Device from, Device to) throws IOException {
+		mFromRoot = from.getFilesDir(ctx);
+		mToRoot = to.getFilesDir(ctx);
+		if (mFromRoot==null || mToRoot==null) throw new IOException("kein App-Verzeichnis");
+		if (mFromRoot.equals(mToRoot)) throw new IllegalArgumentException("Quelle und Ziel sind gleich");
+		mTo = to;
+		mStage = new File(mToRoot, STAGE);
+		mJournalFile = new File(mToRoot, JOURNAL);
+	}
+
+
+	/** @param delete false, um die Quelle stehen zu lassen (kopieren statt verschieben) */
+	public void setDeleteSource(boolean delete) { mDeleteSource = delete; }
+
+	/** @return die schon kopierten Bytes, auch aus einem anderen Thread abfragbar */
+	public long getBytesDone() { return mDone.get(); }
+
+	/** @return die insgesamt zu kopierenden Bytes, 0 bis run() die Quelle gelesen hat */
+	public long getBytesTotal() { return mTotal; }
+
+
+	/**
+	 * Fhrt die Migration aus oder setzt eine abgebrochene fort. Blockiert, 
+	 * bis alles kopiert ist.
+	 * @return die Anzahl der verschobenen Dateien
+	 * @throws IOException wenn auf dem Ziel nicht genug Platz ist oder beim 
+	 * 		Kopieren etwas schief ging; das Journal bleibt dann fr den nchsten 
+	 * 		Versuch stehen
+	 */
+	public synchronized int run() throws IOException {
+		ArrayList<String> files = new ArrayList<String>(), dirs = new ArrayList<String>();
+		walk(mFromRoot, "", files, dirs);
+		HashSet<String> copied = new HashSet<String>(), renamed = new HashSet<String>();
+		readJournal(copied, renamed);
+
+		long total = 0, missing = 0;
+		for (String rel : files) {
+			long size = new File(mFromRoot, rel).length();
+			total += size;
+			if (copied.contains(rel) && !renamed.contains(rel) && !isCopied(rel, size)) {
+				// Zwischenkopie fehlt oder ist kaputt, etwa nach MEDIA_BAD_REMOVAL
+				copied.remove(rel);
+			}
+			if (!copied.contains(rel)) missing += size;
+		}
+		mTotal = total;
+		mDone.set(total-missing);
+
+		Reservation r = null;
+		if (missing>0) {
+			// frisch gelesen, nicht aus dem Cache
+			mTo.getSize(true);
+			r = mTo.reserve(missing);
+			if (r==null) throw new IOException("nicht genug Platz auf "+mTo.getMountPoint()+" fr "+missing+" Bytes");
+		}
+		boolean ok = false;
+		try {
+			if (!mStage.isDirectory() && !mStage.mkdirs()) throw new IOException("kann "+mStage+" nicht anlegen");
+			synchronized (mJournalLock) { mJournal = new FileOutputStream(mJournalFile, true); }
+			if (mJournalFile.length()==0) journal("S " + mFromRoot.getAbsolutePath());
+			copyAll(files, copied);
+			// alles da, jetzt umbenennen
+			for (String rel : files) {
+				if (renamed.contains(rel)) continue;
+				File staged = new File(mStage, rel), target = new File(mToRoot, rel);
+				if (staged.exists()) {
+					target.getParentFile().mkdirs();
+					if (target.exists() && !target.delete() || !staged.renameTo(target)) 
+						throw new IOException("kann "+rel+" nicht umbenennen");
+				} else if (target.length()!=new File(mFromRoot, rel).length()) {
+					throw new IOException("weder kopiert noch umbenannt: "+rel);
+				}
+				journal("R " + rel);
+			}
+			// Verzeichnisse, vor allem leere, die keine Datei mitgebracht hat
+			for (String rel : dirs) {
+				if (renamed.contains(rel)) continue;
+				File target = new File(mToRoot, rel);
+				if (!target.isDirectory() && !target.mkdirs()) throw new IOException("kann "+rel+" nicht anlegen");
+				journal("M " + rel);
+			}
+			ok = true;
+		} finally {
+			if (r!=null) { if (ok) r.commit(); else r.release(); }
+			synchronized (mJournalLock) {
+				if (mJournal!=null) try { mJournal.close(); } catch (IOException e) { }
+				mJournal = null;
+			}
+		}
+
+		if (mDeleteSource) {
+			for (String rel : files) new File(mFromRoot, rel).delete();
+			// von innen nach auen, die Liste hat die Eltern vorne
+			for (int i=dirs.size()-1; i>=0; i--) new File(mFromRoot, dirs.get(i)).delete();
+		}
+		delete(mStage);
+		mJournalFile.delete();
+		return files.size();
+	}
+
+
+	/**
+	 * @return true, wenn eine laut Journal kopierte Datei wirklich in voller 
+	 * 		Gre im Zwischenverzeichnis oder, schon umbenannt, im Ziel liegt
+	 */
+	private boolean isCopied(String rel, long size) {
+		File staged = new File(mStage, rel);
+		if (staged.exists()) return staged.isFile() && staged.length()==size;
+		File target = new File(mToRoot, rel);
+		return target.isFile() && target.length()==size;
+	}
+
+
+	private void copyAll(ArrayList<String> files, HashSet<String> copied) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			private int mCount = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Environment2-Migration-"+(++mCount));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+			for (final String rel : files) {
+				if (copied.contains(rel)) continue;
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						File src = new File(mFromRoot, rel), dst = new File(mStage, rel);
+						dst.getParentFile().mkdirs();
+						long size = copy(src, dst);
+						if (dst.length()!=size || src.length()!=size) throw new IOException("Gre stimmt nicht: "+rel);
+						mDone.addAndGet(size);
+						journal("C " + rel);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("unterbrochen");
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		} finally {
+			// erst alle Threads auslaufen lassen, run() schliet danach das Journal
+			pool.shutdownNow();
+			try {
+				if (!pool.awaitTermination(TERMINATION_WAIT, TimeUnit.MILLISECONDS)) 
+					Log.w(TAG, "Kopier-Threads laufen noch");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	/**
+	 * Kopiert eine Datei ohne Umweg ber einen Puffer in Java und schreibt sie
+	 * auf das Medium durch.
+	 * @return die Anzahl kopierter Bytes
+	 */
+	static long copy(File from, File to) throws IOException {
+		FileInputStream in = new FileInputStream(from);
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(to);
+			FileChannel src = in.getChannel(), dst = out.getChannel();
+			long size = src.size(), pos = 0;
+			while (pos<size) {
+				long n = src.transferTo(pos, size-pos, dst);
+				if (n<=0) throw new IOException("transferTo hngt bei "+pos+": "+from);
+				pos += n;
+			}
+			out.getFD().sync();
+			return size;
+		} finally {
+			in.close();
+			if (out!=null) out.close();
+		}
+	}
+
+
+	private void journal(String line) throws IOException {
+		// eigenes Lock, da run() das Objekt hlt, whrend die Kopier-Threads schreiben
+		synchronized (mJournalLock) {
+			// ein Kopier-Thread, der nach dem Ende von run() noch ankommt
+			if (mJournal==null) throw new IOException("Migration schon beendet");
+			mJournal.write((line+"\n").getBytes("UTF-8"));
+			mJournal.getFD().sync();
+		}
+	}
+
+
+	private void readJournal(HashSet<String> copied, HashSet<String> renamed) {
+		if (!mJournalFile.isFile()) return;
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(new FileInputStream(mJournalFile), "UTF-8"));
+			String line = in.readLine();
+			if (line==null || !line.equals("S " + mFromRoot.getAbsolutePath())) {
+				// gehrt zu einer anderen Quelle
+				in.close();
+				in = null;
+				mJournalFile.delete();
+				delete(mStage);
+				return;
+			}
+			while ((line = in.readLine())!=null) {
+				if (line.startsWith("C ")) copied.add(line.substring(2));
+				else if (line.startsWith("R ") || line.startsWith("M ")) renamed.add(line.substring(2));
+			}
+			Log.i(TAG, "setze fort: "+copied.size()+" kopiert, "+renamed.size()+" umbenannt");
+		} catch (IOException e) {
+			Log.w(TAG, "Journal unlesbar, beginne neu", e);
+			copied.clear();
+			renamed.clear();
+		} finally {
+			if (in!=null) try { in.close(); } catch (IOException e) { }
+		}
+	}
+
+
+	/** 
+	 * sammelt die relativen Pfade aller Dateien und Verzeichnisse unter dir, 
+	 * ohne Zwischenverzeichnis und Journal einer frher abgebrochenen 
+	 * Migration in dieses Verzeichnis; Verzeichnisse vor ihrem Inhalt
+	 */
+	private void walk(File dir, String prefix, ArrayList<String> out, ArrayList<String> dirs) {
+		File[] files = dir.listFiles();
+		if (files==null) return;
+		for (File f : files) {
+			if (prefix.length()==0 && f.getName().startsWith(STAGE)) continue;
+			String rel = prefix + f.getName();
+			if (f.isDirectory()) {
+				dirs.add(rel);
+				walk(f, rel + "/", out, dirs);
+			} else out.add(rel);
+		}
+	}
+
+
+	private static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files!=null) for (File i : files) delete(i);
+		f.delete();
+	}
+}
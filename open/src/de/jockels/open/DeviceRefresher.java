@@ -0,0 +1,121 @@
+package de.jockels.open;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Fhrt {@link Device#updateState()} fr mehrere Devices parallel auf einem
+ * kleinen Thread-Pool aus und wartet hchstens bis zu einer Deadline. Eine
+ * hngende oder halb entnommene Karte (typisch bei MEDIA_BAD_REMOVAL) bremst
+ * so nicht mehr alle anderen aus, sondern wird als "unresponsive" markiert
+ * (siehe {@link Device#isResponsive()}). Luft ihr updateState() spter doch
+ * noch durch, wird die Markierung wieder entfernt. Solange ein alter Aufruf
+ * noch hngt, wird fr das Device kein neuer gestartet, damit hngende Karten
+ * nicht nach und nach den ganzen Pool belegen. Das gilt pro MountPoint, also
+ * auch fr die neuen Device-Objekte eines Rescans.
+ *
+ * @see Environment2#updateDevices()
+ * @since 1.6
+ */
+final class DeviceRefresher {
+	private static final String TAG = "DeviceRefresher";
+	private static final int THREADS = 3;
+	/** Default fr {@link #setTimeout(long)} */
+	static final long DEFAULT_TIMEOUT = 2000;
+
+	private static ExecutorService mPool = null;
+	private static volatile long mTimeout = DEFAULT_TIMEOUT;
+	// laufende updateState()-Aufrufe pro MountPoint; fertige tragen sich selbst aus
+	private static final ConcurrentHashMap<String, Future<?>> mInFlight = new ConcurrentHashMap<String, Future<?>>();
+
+	private DeviceRefresher() {}
+
+
+	static void setTimeout(long millis) {
+		if (millis<=0) throw new IllegalArgumentException("millis muss positiv sein");
+		mTimeout = millis;
+	}
+
+
+	/**
+	 * Aktualisiert alle Devices und kehrt sptestens nach dem Timeout zurck.
+	 * @param devices die Devices; null-Eintrge werden bersprungen
+	 */
+	static void refresh(Device[] devices) {
+		ExecutorService pool = pool();
+		Future<?>[] futures = new Future<?>[devices.length];
+		for (int i=0; i<devices.length; i++) {
+			Device d = devices[i];
+			if (d==null) continue;
+			FutureTask<Void> task = new FutureTask<Void>(new Refresh(d), null);
+			Future<?> pending = mInFlight.putIfAbsent(d.getMountPoint(), task);
+			if (pending!=null && !pending.isDone()) {
+				// hngt noch vom letzten Mal, evtl. mit dem Device vor einem Rescan
+				d.mResponsive = false;
+				continue;
+			}
+			if (pending!=null) mInFlight.put(d.getMountPoint(), task);
+			pool.execute(task);
+			futures[i] = task;
+		}
+
+		long deadline = SystemClock.elapsedRealtime() + mTimeout;
+		for (int i=0; i<devices.length; i++) {
+			if (futures[i]==null) continue;
+			try {
+				futures[i].get(Math.max(0, deadline-SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				devices[i].mResponsive = false;
+				Trace.event(Trace.NOT_RESPONDING, devices[i].getMountPoint());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				Log.w(TAG, "updateState fehlgeschlagen: "+devices[i].getMountPoint(), e);
+			}
+		}
+	}
+
+
+	private static synchronized ExecutorService pool() {
+		if (mPool==null) mPool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			private int mCount = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Environment2-Refresh-"+(++mCount));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return mPool;
+	}
+
+
+	private static final class Refresh implements Runnable {
+		private final Device mDevice;
+
+		Refresh(Device d) { mDevice = d; }
+
+		public void run() {
+			long t = Metrics.start();
+			try {
+				mDevice.updateState();
+			} finally {
+				mInFlight.remove(mDevice.getMountPoint());
+			}
+			Metrics.stop(MetricsSnapshot.TIMER_UPDATE_STATE, t);
+			Metrics.stopDevice(mDevice.getMountPoint(), t);
+			mDevice.mResponsive = true;
+			// auch wenn das nach dem Timeout passiert
+			DeviceIndex.invalidateAll();
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package de.jockels.open;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unvernderlicher Stand der Gerteliste, wie ihn {@link Environment2#rescanDevices()}
+ * erzeugt. Ein Rescan baut einen neuen Stand nebenher auf und ersetzt dann den
+ * alten mit einer einzigen Zuweisung an ein volatile-Feld. Leser holen sich den
+ * Stand einmal und arbeiten dann ohne Locks damit, sehen also nie eine halb
+ * aufgebaute Liste.
+ * <p>
+ * Die {@link Device}-Objekte selbst werden von {@link Environment2#updateDevices()}
+ * weiterhin an Ort und Stelle aktualisiert; deren Zustandsfelder sind dafr
+ * volatile.
+ *
+ * @since 1.6
+ */
+final class DeviceRegistry {
+	private static final AtomicLong mGenerations = new AtomicLong(0);
+
+	/** fortlaufend pro Rescan, damit ein veralteter Stand keine Events mehr auslst */
+	final long generation = mGenerations.incrementAndGet();
+	/** die primre SD-Karte, meist /mnt/sdcard; nie null */
+	final DeviceExternal primary;
+	/** die Zweit-SD oder null */
+	final DeviceDiv secondary;
+	/** alle weiteren Devices in der Reihenfolge des Scans; nicht verndern */
+	final DeviceDiv[] devices;
+	/** zeigen /mnt/sdcard und /data auf denselben Speicher? */
+	final boolean externalEmulated;
+	private volatile DeviceIndex mIndex;
+	private volatile MountTrie mTrie = null;
+
+	DeviceRegistry(DeviceExternal primary, DeviceDiv secondary, DeviceDiv[] devices, boolean externalEmulated) {
+		this.primary = primary;
+		this.secondary = secondary;
+		this.devices = devices;
+		this.externalEmulated = externalEmulated;
+		mIndex = new DeviceIndex(primary, devices);
+	}
+
+
+	/**
+	 * @return der Index fr {@link Environment2#getDevices(String, boolean, boolean, boolean)};
+	 * 		ist er nach einem updateState() veraltet, wird ohne Lock ein neuer
+	 * 		angelegt, bei gleichzeitigem Aufruf evtl. zweimal
+	 */
+	DeviceIndex index() {
+		DeviceIndex i = mIndex;
+		if (i.isStale()) mIndex = i = new DeviceIndex(primary, devices);
+		return i;
+	}
+
+
+	/** 
+	 * @return der Baum der MountPoints aller Devices einschlielich /data; wird 
+	 * 		beim ersten Aufruf erzeugt, bei gleichzeitigem Aufruf evtl. zweimal
+	 */
+	MountTrie trie() {
+		MountTrie t = mTrie;
+		if (t==null) {
+			Device[] all = new Device[devices.length+2];
+			all[0] = primary;
+			System.arraycopy(devices, 0, all, 1, devices.length);
+			all[devices.length+1] = Environment2.getInternalStorage();
+			mTrie = t = new MountTrie(all);
+		}
+		return t;
+	}
+}
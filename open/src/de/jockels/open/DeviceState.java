@@ -0,0 +1,39 @@
+package de.jockels.open;
+
+/**
+ * Unvernderlicher Zustand eines {@link Device} zu einem Zeitpunkt, wie er in
+ * einem {@link DeviceEvent} als Vorher und Nachher mitgeliefert wird. Die
+ * Device-Objekte selbst ndern sich bei jeder Aktualisierung, dieses hier nicht.
+ *
+ * @since 1.6
+ */
+public final class DeviceState {
+	private final String mMountPoint;
+	private final String mName;
+	private final boolean mAvailable, mWriteable;
+	private final long mFree, mTotal;
+
+	DeviceState(Device d) {
+		mMountPoint = d.getMountPoint();
+		mName = d.getName();
+		mAvailable = d.isAvailable();
+		mWriteable = mAvailable && d.isWriteable();
+		Size s = mAvailable ? d.getSize() : null;
+		mFree = s==null ? 0 : s.getFree();
+		mTotal = s==null ? 0 : s.getTotal();
+	}
+
+	public String getMountPoint() { return mMountPoint; }
+	public String getName() { return mName; }
+	public boolean isAvailable() { return mAvailable; }
+	public boolean isWriteable() { return mWriteable; }
+	/** @return der freie Speicher in Bytes, 0 falls nicht verfgbar */
+	public long getFree() { return mFree; }
+	/** @return die Gre in Bytes, 0 falls nicht verfgbar */
+	public long getTotal() { return mTotal; }
+
+	@Override
+	public String toString() {
+		return mName + " (" + mMountPoint + ", " + (mAvailable ? (mWriteable ? "rw" : "ro") : "fehlt") + ", " + mFree + "/" + mTotal + ")";
+	}
+}
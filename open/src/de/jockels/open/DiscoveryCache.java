@@ -0,0 +1,130 @@
+package de.jockels.open;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Speichert das ausgewertete Ergebnis von vold.fstab bzw. vold.conf in einer
+ * kleinen Binrdatei im privaten Verzeichnis der App. Die Datei in /system
+ * ndert sich nur mit einem System-Update, also reicht als Schlssel: Pfad,
+ * nderungszeit und Gre der vold-Datei, {@link Build#FINGERPRINT} und der
+ * MountPoint der primren SD-Karte (von dem die Auswertung abhngt). Passt
+ * der Schlssel, muss {@link Environment2} weder lesen noch auswerten, sondern
+ * nur noch die Devices anlegen.
+ * <p>
+ * Aufbau der Datei: Magic, Version, Schlssel, Ergebnis fr die primre Karte,
+ * Anzahl der Eintrge und dann jeweils Label und MountPoint.
+ *
+ * @see Environment2#enableDiscoveryCache(android.content.Context)
+ * @since 1.6
+ */
+final class DiscoveryCache {
+	private static final String TAG = "DiscoveryCache";
+	private static final int MAGIC = 0x45324443; // "E2DC"
+	private static final int VERSION = 1;
+
+	/** die Auswertung ndert nichts an {@link DeviceExternal#isRemovable()} */
+	static final byte PRIMARY_UNCHANGED = -1;
+	/** die primre Karte ist laut vold nicht entnehmbar */
+	static final byte PRIMARY_FIXED = 0;
+	/** die primre Karte ist laut vold entnehmbar */
+	static final byte PRIMARY_REMOVABLE = 1;
+
+	/**
+	 * Das ausgewertete Ergebnis einer vold-Datei.
+	 */
+	static final class Table {
+		final String[] labels;
+		final String[] mountPoints;
+		final byte primary;
+
+		Table(String[] labels, String[] mountPoints, byte primary) {
+			this.labels = labels;
+			this.mountPoints = mountPoints;
+			this.primary = primary;
+		}
+	}
+
+	private final File mFile;
+
+
+	DiscoveryCache(File file) { mFile = file; }
+
+
+	/**
+	 * @param source die vold-Datei
+	 * @param primary der MountPoint der primren SD-Karte
+	 * @return die gespeicherte Auswertung oder null, falls keine da ist oder sie
+	 * 		nicht zum Schlssel passt
+	 */
+	Table load(File source, String primary) {
+		if (!mFile.isFile()) return null;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile), 1024));
+			try {
+				if (in.readInt()!=MAGIC || in.readInt()!=VERSION) return null;
+				if (!source.getAbsolutePath().equals(in.readUTF())
+						|| source.lastModified()!=in.readLong()
+						|| source.length()!=in.readLong()
+						|| !String.valueOf(Build.FINGERPRINT).equals(in.readUTF())
+						|| !primary.equals(in.readUTF()))
+					return null;
+				byte p = in.readByte();
+				int n = in.readShort();
+				String[] labels = new String[n], mountPoints = new String[n];
+				for (int i=0; i<n; i++) {
+					labels[i] = in.readUTF();
+					mountPoints[i] = in.readUTF();
+				}
+				return new Table(labels, mountPoints, p);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "kann "+mFile+" nicht lesen: "+e.getMessage());
+			return null;
+		}
+	}
+
+
+	/**
+	 * Speichert die Auswertung; schreibt erst in eine temporre Datei und
+	 * benennt sie dann um, damit nie eine halbe Datei gelesen wird.
+	 */
+	void store(File source, String primary, Table t) {
+		File tmp = new File(mFile.getPath()+".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(source.getAbsolutePath());
+				out.writeLong(source.lastModified());
+				out.writeLong(source.length());
+				out.writeUTF(String.valueOf(Build.FINGERPRINT));
+				out.writeUTF(primary);
+				out.writeByte(t.primary);
+				out.writeShort(t.labels.length);
+				for (int i=0; i<t.labels.length; i++) {
+					out.writeUTF(t.labels[i]);
+					out.writeUTF(t.mountPoints[i]);
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(mFile)) tmp.delete();
+		} catch (IOException e) {
+			Log.w(TAG, "kann "+mFile+" nicht schreiben: "+e.getMessage());
+			tmp.delete();
+		}
+	}
+}
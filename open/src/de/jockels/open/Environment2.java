@@ -1,9 +1,14 @@
 package de.jockels.open;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import android.annotation.SuppressLint;
 import android.content.BroadcastReceiver;
@@ -12,9 +17,8 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.text.TextUtils;
-import android.text.TextUtils.SimpleStringSplitter;
-import android.util.Log;
 import de.jockels.open.pref.DevicesListPreference;
 
 /**
@@ -35,9 +39,12 @@ import de.jockels.open.pref.DevicesListPreference;
  * <p>
  * Siehe dazu auch c't 22/12.
  * <p>Die Klasse selbst muss nicht instantiiert werden, sondern alle Methoden
- * sind static und beim Start der App wird automatisch {@link #rescanDevices()} 
- * aufgerufen, um die Liste der Devices zu erzeugen und somit eine echte
- * SD-Karte zu finden. Die Liste wird nicht automatisch aktualisiert, aber 
+ * sind static. Die Liste der Devices wird erst erzeugt, wenn sie gebraucht 
+ * wird: entweder im Hintergrund per {@link #startRescan()} (z.B. in 
+ * Application.onCreate()) oder sptestens beim ersten Aufruf einer Methode, 
+ * die die Liste bentigt. Das Laden der Klasse selbst kostet also nichts.
+ * Wer nicht warten will, bekommt per {@link #getLastKnownDevices()} den 
+ * zuletzt bekannten Stand. Die Liste wird nicht automatisch aktualisiert, aber 
  * eine App kann rescanDevices() aufrufen. Auch ist ein BroadcastReceiver fr 
  * automatische Updates implementiert, muss aber von der App
  * aufgerufen werden (siehe unten).
@@ -168,22 +175,39 @@ import de.jockels.open.pref.DevicesListPreference;
  *  	finden nun ber die Methoden von mPrimary statt, was ein {@link DeviceExternal}
  *  	ist und bei Versionen vor API8 eine Emulation fhrt hnlich der in 
  *  	{@link DeviceDiv} sowieso vorhandenen.
+ *  
+ *  @version 1.6 - kein Scan mehr im static-initializer, sondern im Hintergrund 
+ *  	per {@link #startRescan()} oder beim ersten Bedarf
  */
 
 public class Environment2  {
-	private static final String TAG = "Environment2";
-	private static final boolean DEBUG = true;
+	/** Level fr {@link #setTraceLevel(int)}: nichts aufzeichnen */
+	public static final int TRACE_OFF = 0;
+	/** Level fr {@link #setTraceLevel(int)}: nur Fehler wie eine nicht lesbare vold.fstab */
+	public static final int TRACE_ERROR = 1;
+	/** Level fr {@link #setTraceLevel(int)}: auch Korrekturen der Erkennung */
+	public static final int TRACE_WARN = 2;
+	/** Level fr {@link #setTraceLevel(int)}: auch Broadcasts, Rescans und die gewhlte Karte (Default) */
+	public static final int TRACE_INFO = 3;
+	/** Level fr {@link #setTraceLevel(int)}: alles, einschlielich jedes gefundenen Gerts */
+	public static final int TRACE_VERBOSE = 4;
 	
-	private static ArrayList<DeviceDiv> mDeviceList = null;
-	private static boolean mExternalEmulated = false;
-	private static Device mInternal = null;
-	protected static DeviceExternal mPrimary = null;
-	private static DeviceDiv mSecondary = null;
+	// der aktuelle Stand; wird bei jedem Rescan als Ganzes ersetzt, null bis zum ersten Scan
+	private static volatile DeviceRegistry mRegistry = null;
+	private static volatile PlacementPolicy mPlacementPolicy = new DefaultPlacementPolicy();
+	private static volatile Device mInternal = null;
+
+	// Scan im Hintergrund bzw. beim ersten Bedarf
+	private static final Object mScanLock = new Object();
+	// eigenes kleines Lock, damit startRescan() nie auf einen laufenden Scan wartet
+	private static final Object mTaskLock = new Object();
+	private static FutureTask<Device[]> mScanTask = null; // nur unter mTaskLock
+	private static final VoldParser mVoldParser = new VoldParser();
+	private static MountInfo mMountInfo = new MountInfo(); // nur unter mScanLock
+	private static HashMap<MountInfo.Entry, DeviceDiv> mMountDevices = new HashMap<MountInfo.Entry, DeviceDiv>();
+	private static volatile DiscoveryCache mDiscoveryCache = null;
 
 	public final static String PATH_PREFIX = "/Android/data/";
-	static {
-		rescanDevices();
-	}
 
 
 	/**
@@ -193,7 +217,8 @@ public class Environment2  {
 	 * 		false wenn nicht eingelegt oder kein Slot vorhanden
 	 */
 	public static boolean isSecondaryExternalStorageAvailable() {
-		return mSecondary!=null && mSecondary.isAvailable();
+		DeviceDiv secondary = registry().secondary;
+		return secondary!=null && secondary.isAvailable();
 	}
 
 	
@@ -205,7 +230,8 @@ public class Environment2  {
 	 * @see #isSecondaryExternalStorageAvailable()
 	 */
 	public final static boolean isSecondaryExternalStorageRemovable() throws NoSecondaryStorageException {
-		if (mSecondary==null) throw new NoSecondaryStorageException();
+		DeviceDiv secondary = registry().secondary;
+		if (secondary==null) throw new NoSecondaryStorageException();
 		return true;
 	}
 	
@@ -217,8 +243,9 @@ public class Environment2  {
 	 * @see #isSecondaryExternalStorageAvailable()
 	 */
 	public static File getSecondaryExternalStorageDirectory() throws NoSecondaryStorageException {
-		if (mSecondary==null) throw new NoSecondaryStorageException();
-		return mSecondary.getFile(); 
+		DeviceDiv secondary = registry().secondary;
+		if (secondary==null) throw new NoSecondaryStorageException();
+		return secondary.getFile(); 
 	}
 
 	
@@ -236,8 +263,9 @@ public class Environment2  {
 	 * @see #isSecondaryExternalStorageAvailable()
 	 */
 	public static String getSecondaryExternalStorageState() throws NoSecondaryStorageException {
-		if (mSecondary==null) throw new NoSecondaryStorageException();
-		return mSecondary.getState();
+		DeviceDiv secondary = registry().secondary;
+		if (secondary==null) throw new NoSecondaryStorageException();
+		return secondary.getState();
 	}
 
 	
@@ -252,9 +280,10 @@ public class Environment2  {
 	 * @throws NoSecondaryStorageException falls keine Zweit-SD vorhanden
 	 */
 	public static File getSecondaryExternalStoragePublicDirectory(String s) throws NoSecondaryStorageException {
-		if (mSecondary==null) throw new NoSecondaryStorageException();
+		DeviceDiv secondary = registry().secondary;
+		if (secondary==null) throw new NoSecondaryStorageException();
 		if (s==null) throw new IllegalArgumentException("s darf nicht null sein");
-		return mSecondary.getPublicDirectory(s);
+		return secondary.getPublicDirectory(s);
 	}
 	
 	
@@ -271,16 +300,18 @@ public class Environment2  {
 	 * @throws NoSecondaryStorageException falls keine Zwei-SD vorhanden
 	 */
 	public static File getSecondaryExternalFilesDir(Context context, String s) throws NoSecondaryStorageException {
-		if (mSecondary==null) throw new NoSecondaryStorageException();
+		DeviceDiv secondary = registry().secondary;
+		if (secondary==null) throw new NoSecondaryStorageException();
 		if (context==null) throw new IllegalArgumentException("context darf nicht null sein");
-		return mSecondary.getFilesDir(context, s);
+		return secondary.getFilesDir(context, s);
 	}
 	
 	
 	public static File getSecondaryExternalCacheDir(Context context) throws NoSecondaryStorageException {
-		if (mSecondary==null) throw new NoSecondaryStorageException();
+		DeviceDiv secondary = registry().secondary;
+		if (secondary==null) throw new NoSecondaryStorageException();
 		if (context==null) throw new IllegalArgumentException("context darf nicht null sein");
-		return mSecondary.getCacheDir(context);
+		return secondary.getCacheDir(context);
 	}
 	
 
@@ -290,46 +321,212 @@ public class Environment2  {
 	 * {@link #getCardCacheDir(Context)}, {@link #getCardFilesDir(Context, String)}.
 */
 	public static File getCardDirectory() {
-		if (isSecondaryExternalStorageAvailable())
-			try {return getSecondaryExternalStorageDirectory();} 
-			catch (NoSecondaryStorageException e) {throw new RuntimeException("NoSecondaryException trotz Available"); }
+		DeviceDiv secondary = registry().secondary;
+		if (secondary!=null && secondary.isAvailable())
+			return secondary.getFile();
 		else
 			return Environment.getExternalStorageDirectory();
 	}
 
 	public static File getCardPublicDirectory(String dir) {
-		if (isSecondaryExternalStorageAvailable())
-			try {return getSecondaryExternalStoragePublicDirectory(dir);} 
-			catch (NoSecondaryStorageException e) {throw new RuntimeException("NoSecondaryException trotz Available"); }
-		else
-			return mPrimary.getPublicDirectory(dir);
+		DeviceRegistry r = registry();
+		if (r.secondary!=null && r.secondary.isAvailable()) {
+			if (dir==null) throw new IllegalArgumentException("s darf nicht null sein");
+			return r.secondary.getPublicDirectory(dir);
+		} else
+			return r.primary.getPublicDirectory(dir);
 	}
 
 	public static String getCardState() {
-		if (isSecondaryExternalStorageAvailable())
-			try {return getSecondaryExternalStorageState();} 
-			catch (NoSecondaryStorageException e) {throw new RuntimeException("NoSecondaryException trotz Available"); }
+		DeviceDiv secondary = registry().secondary;
+		if (secondary!=null && secondary.isAvailable())
+			return secondary.getState();
 		else
 			return Environment.getExternalStorageState();
 	}
 
 	public static File getCardCacheDir(Context ctx) {
-		if (isSecondaryExternalStorageAvailable())
-			try {return getSecondaryExternalCacheDir(ctx);} 
-			catch (NoSecondaryStorageException e) {throw new RuntimeException("NoSecondaryException trotz Available"); }
-		else
-			return mPrimary.getCacheDir(ctx);
+		DeviceRegistry r = registry();
+		if (r.secondary!=null && r.secondary.isAvailable()) {
+			if (ctx==null) throw new IllegalArgumentException("context darf nicht null sein");
+			return r.secondary.getCacheDir(ctx);
+		} else
+			return r.primary.getCacheDir(ctx);
 	}
 
 	public static File getCardFilesDir(Context ctx, String dir) {
-		if (isSecondaryExternalStorageAvailable())
-			try {return getSecondaryExternalFilesDir(ctx, dir);} 
-			catch (NoSecondaryStorageException e) {throw new RuntimeException("NoSecondaryException trotz Available"); }
-		else
-			return mPrimary.getFilesDir(ctx, dir);
+		DeviceRegistry r = registry();
+		if (r.secondary!=null && r.secondary.isAvailable()) {
+			if (ctx==null) throw new IllegalArgumentException("context darf nicht null sein");
+			return r.secondary.getFilesDir(ctx, dir);
+		} else
+			return r.primary.getFilesDir(ctx, dir);
 	}
 
 
+	/**
+	 * Sucht das Device aus, auf das eine Datei geschrieben werden soll. 
+	 * Anders als bei den getCardXXX()-Methoden, die immer die Zweit-SD nehmen, 
+	 * falls vorhanden, entscheidet hier eine {@link PlacementPolicy} anhand
+	 * von Gre und Art der Daten. Schnell genug fr einen Aufruf pro Datei.
+	 * 
+	 * @param r was geschrieben werden soll
+	 * @return das Device oder null, falls keines passt (z.B. zu wenig Platz)
+	 * @see #choosePlacement(Context, WriteRequest)
+	 * @since 1.6
+	 */
+	public static Device chooseDevice(WriteRequest r) {
+		if (r==null) throw new IllegalArgumentException("r darf nicht null sein");
+		return mPlacementPolicy.choose(r, getDevices(null, true, true, true));
+	}
+	
+	
+	/**
+	 * Wie {@link #chooseDevice(WriteRequest)}, liefert aber gleich das 
+	 * App-Verzeichnis auf dem Device.
+	 * @param ctx der Context der App
+	 * @param r was geschrieben werden soll; {@link WriteRequest#getSubdir()} 
+	 * 		bestimmt das Unterverzeichnis
+	 * @return das Verzeichnis wie {@link Device#getFilesDir(Context, String)}
+	 * 		oder null, falls kein Device passt
+	 * @since 1.6
+	 */
+	public static File choosePlacement(Context ctx, WriteRequest r) {
+		if (ctx==null) throw new IllegalArgumentException("context darf nicht null sein");
+		Device d = chooseDevice(r);
+		if (d==null) return null;
+		return r.getSubdir()==null ? d.getFilesDir(ctx) : d.getFilesDir(ctx, r.getSubdir());
+	}
+	
+	
+	/**
+	 * Liefert die Verwaltung fr das Cache-Verzeichnis eines Devices, die 
+	 * dessen Gre begrenzt und die am lngsten nicht benutzten Dateien 
+	 * lscht. Pro Device gibt es genau eine.
+	 * @param ctx der Context der App
+	 * @param d das Device
+	 * @return die Verwaltung oder null, falls das Device kein Cache-Verzeichnis hat
+	 * @since 1.6
+	 */
+	public static CacheManager getCacheManager(Context ctx, Device d) {
+		if (ctx==null) throw new IllegalArgumentException("context darf nicht null sein");
+		if (d==null) throw new IllegalArgumentException("device darf nicht null sein");
+		return CacheManager.get(ctx, d);
+	}
+	
+	
+	/**
+	 * ffnet einen Dateispeicher, der hufig gelesene Eintrge im schnellen 
+	 * internen Speicher hlt und selten gelesene auf die SD-Karte auslagert.
+	 * Pro Name gibt es genau einen.
+	 * @param ctx der Context der App
+	 * @param name der Name des Speichers, wird zum Verzeichnisnamen
+	 * @see TieredStore
+	 * @since 1.6
+	 */
+	public static TieredStore openTieredStore(Context ctx, String name) {
+		if (ctx==null) throw new IllegalArgumentException("context darf nicht null sein");
+		return TieredStore.open(ctx, name);
+	}
+	
+	
+	/**
+	 * Bereitet das Verschieben der App-Daten ({@link Device#getFilesDir(Context)})
+	 * von einem Device auf ein anderes vor; gestartet wird mit 
+	 * {@link DeviceMigration#run()}, am besten nicht im UI-Thread.
+	 * @param ctx der Context der App
+	 * @param from die Quelle
+	 * @param to das Ziel
+	 * @throws IOException wenn eines der Devices kein App-Verzeichnis hat
+	 * @since 1.6
+	 */
+	public static DeviceMigration createMigration(Context ctx, Device from, Device to) throws IOException {
+		if (ctx==null) throw new IllegalArgumentException("context darf nicht null sein");
+		if (from==null || to==null) throw new IllegalArgumentException("device darf nicht null sein");
+		return new DeviceMigration(ctx, from, to);
+	}
+	
+	
+	/**
+	 * Zhlt im Hintergrund, wie viel Platz ein Verzeichnisbaum belegt, z.B.
+	 * {@link Device#getFilesDir(Context)}. Ein zweiter Lauf ber denselben 
+	 * Baum liest nur die Verzeichnisse neu, die sich gendert haben.
+	 * @param root das Verzeichnis
+	 * @param l bekommt Zwischenstnde und das Ergebnis, kann null sein
+	 * @return das Ergebnis in Bytes, sobald alles gezhlt ist
+	 * @see UsageScanner
+	 * @since 1.6
+	 */
+	public static Future<Long> scanUsage(File root, UsageScanner.Listener l) {
+		if (root==null) throw new IllegalArgumentException("root darf nicht null sein");
+		return UsageScanner.scan(root, l);
+	}
+	
+	
+	/**
+	 * Schaltet die eingebauten Zhler und Zeitmessungen ein oder aus, z.B. fr
+	 * Debug-Builds oder um ein langsames Gert zu untersuchen. Ausgeschaltet 
+	 * (der Default) kosten sie praktisch nichts.
+	 * @param enabled true zum Einschalten
+	 * @param reset true setzt alle Werte auf 0
+	 * @see #getMetrics()
+	 * @since 1.6
+	 */
+	public static void setMetricsEnabled(boolean enabled, boolean reset) {
+		if (reset) Metrics.reset();
+		Metrics.mEnabled = enabled;
+	}
+	
+	
+	/**
+	 * @return der aktuelle Stand der Zhler und Zeitmessungen, einschlielich
+	 * 		der Dauer von updateState() pro Device; per toString() als Text 
+	 * @see #setMetricsEnabled(boolean, boolean)
+	 * @since 1.6
+	 */
+	public static MetricsSnapshot getMetrics() {
+		return Metrics.snapshot();
+	}
+	
+	
+	/**
+	 * Legt fest, welche Ereignisse bei der Erkennung der Devices aufgezeichnet
+	 * werden. Die Aufzeichnung landet ohne Textaufbereitung in einem 
+	 * Ringpuffer der letzten 256 Ereignisse und kann daher auch in 
+	 * ausgelieferten Apps an bleiben; lesbar wird sie erst per {@link #dumpTrace()}.
+	 * @param level {@link #TRACE_OFF}, {@link #TRACE_ERROR}, {@link #TRACE_WARN},
+	 * 		{@link #TRACE_INFO} (der Default) oder {@link #TRACE_VERBOSE}
+	 * @since 1.6
+	 */
+	public static void setTraceLevel(int level) {
+		if (level<TRACE_OFF || level>TRACE_VERBOSE) throw new IllegalArgumentException("unbekannter Level "+level);
+		Trace.mLevel = level;
+	}
+	
+	
+	/**
+	 * @return die aufgezeichneten Ereignisse als Text, das lteste zuerst, 
+	 * 		z.B. fr einen Fehlerbericht bei falsch erkannten Karten
+	 * @see #setTraceLevel(int)
+	 * @since 1.6
+	 */
+	public static String dumpTrace() {
+		StringBuilder sb = new StringBuilder(4096);
+		Trace.dump(sb);
+		return sb.toString();
+	}
+	
+	
+	/**
+	 * Setzt die Strategie fr {@link #chooseDevice(WriteRequest)}.
+	 * @param p die Strategie oder null fr die Standard-Strategie
+	 * @since 1.6
+	 */
+	public static void setPlacementPolicy(PlacementPolicy p) {
+		mPlacementPolicy = p!=null ? p : new DefaultPlacementPolicy();
+	}
+	
+	
 	/**
 	 * Alternative zu {@code Environment#isExternalStorageEmulated() }, 
 	 * die ab API8 funktioniert. Wenn true geliefert wird, handelt es sich
@@ -345,7 +542,7 @@ public class Environment2  {
 	 * @see #isExternalStorageRemovable()
 	 */
 	public static boolean isExternalStorageEmulated() {
-		return mExternalEmulated; 
+		return registry().externalEmulated; 
 	}
 
 	
@@ -370,7 +567,7 @@ public class Environment2  {
 	 * @see #isExternalStorageEmulated()
 	 */
 	public static boolean isExternalStorageRemovable() { 
-		return mPrimary.isRemovable();
+		return registry().primary.isRemovable();
 	}
 
 	
@@ -386,7 +583,6 @@ public class Environment2  {
 	 * @see IntentFilter
 	 */
 	public static IntentFilter getRescanIntentFilter() {
-		if (mDeviceList==null) rescanDevices();
 		IntentFilter filter = new IntentFilter();
 		filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL); // rausgenommen
 		filter.addAction(Intent.ACTION_MEDIA_MOUNTED); // wieder eingesetzt
@@ -421,8 +617,16 @@ public class Environment2  {
 	 * <p>
 	 * und spter (z.B. in onDestroy() ): {@code unregisterReceiver(mRescanReceiver);}
 	 * <p>
-	 * Der hier implementierte Receiver macht nichts anderes als {@link #rescanDevices() }
-	 * und dann den Runnable aufzurufen.
+	 * Der hier implementierte Receiver macht nichts anderes als {@link #updateDevices() }
+	 * und dann den Runnable aufzurufen. Seit Version 1.6 passiert das nicht mehr 
+	 * direkt in onReceive(): Alle Broadcasts, die innerhalb des mit 
+	 * {@link #setRescanWindow(long)} eingestellten Zeitfensters eintreffen, 
+	 * fhren zusammen zu nur einem updateDevices() im Hintergrund, auch wenn
+	 * mehrere Receiver registriert sind. Danach wird der Runnable jedes Receivers 
+	 * genau einmal im UI-Thread aufgerufen.
+	 * <p>
+	 * Statt unregisterReceiver kann man auch {@link #unregisterRescanBroadcastReceiver(Context, BroadcastReceiver)}
+	 * aufrufen, was zustzlich einen noch ausstehenden Callback verwirft.
 	 * <p>
 	 * TODO Problematisch ist, dass bei MEDIA_BAD_REMOVAL die Daten des flschlich
 	 * 	entnommenen Sticks noch vorhanden sind.
@@ -437,12 +641,12 @@ public class Environment2  {
 	 * @see BroadcastReceiver
 	 */
 	public static BroadcastReceiver registerRescanBroadcastReceiver(Context context, final Runnable r) {
-		if (mDeviceList==null) rescanDevices();
+		if (mRegistry==null) startRescan();
 		BroadcastReceiver br = new BroadcastReceiver() {
 			@Override public void onReceive(Context context, Intent intent) {
-				if (DEBUG) Log.i(TAG, "Storage: "+intent.getAction()+"-"+intent.getData());
-				updateDevices();
-				if (r!=null) r.run();
+				Metrics.count(MetricsSnapshot.COUNTER_BROADCASTS);
+				Trace.event(Trace.BROADCAST, intent.getAction(), intent.getData());
+				RescanScheduler.request(this, r);
 			}
 		};
 		context.registerReceiver(br, getRescanIntentFilter());
@@ -453,7 +657,8 @@ public class Environment2  {
 	/**
 	 * Wie {@link #registerRescanBroadcastReceiver(Context, Runnable)}, nur dass ein BroadcastReceiver
 	 * bergeben werden muss, deren onReceive dann aufgerufen wird. Der Unterschied: Hier bekommt
-	 * der Aufrufer den Intent mitgeteilt, beim anderen Aufruf nicht.
+	 * der Aufrufer den Intent mitgeteilt, beim anderen Aufruf nicht. Kommen innerhalb
+	 * des Zeitfensters mehrere Intents, bekommt r nur den letzten.
 	 * 
 	 * @param context der Context der App
 	 * @param r der BroadcastReceiver, dessen onReceive() aufgerufen werden soll
@@ -462,17 +667,43 @@ public class Environment2  {
 	 * @since 1.4
 	 */
 	public static BroadcastReceiver registerRescanBroadcastReceiver(Context context, final BroadcastReceiver r) {
-		if (mDeviceList==null) rescanDevices();
+		if (mRegistry==null) startRescan();
 		BroadcastReceiver br = new BroadcastReceiver() {
-			@Override public void onReceive(Context context, Intent intent) {
-				if (DEBUG) Log.i(TAG, "Storage: "+intent.getAction()+"-"+intent.getData());
-				updateDevices();
-				if (r!=null) r.onReceive(context, intent);
+			@Override public void onReceive(final Context context, final Intent intent) {
+				Metrics.count(MetricsSnapshot.COUNTER_BROADCASTS);
+				Trace.event(Trace.BROADCAST, intent.getAction(), intent.getData());
+				RescanScheduler.request(this, r==null ? null : new Runnable() {
+					public void run() { r.onReceive(context, intent); }
+				});
 			}
 		};
 		context.registerReceiver(br, getRescanIntentFilter());
 		return br;
 	}
+	
+	
+	/**
+	 * Meldet einen mit registerRescanBroadcastReceiver erzeugten Receiver ab und 
+	 * verwirft einen evtl. noch ausstehenden Callback.
+	 * @param context der Context, in dem der Receiver registriert wurde
+	 * @param br der von registerRescanBroadcastReceiver gelieferte Receiver
+	 * @since 1.6
+	 */
+	public static void unregisterRescanBroadcastReceiver(Context context, BroadcastReceiver br) {
+		context.unregisterReceiver(br);
+		RescanScheduler.cancel(br);
+	}
+	
+	
+	/**
+	 * Legt das Zeitfenster fest, in dem Media-Broadcasts zu einem einzigen
+	 * {@link #updateDevices()} zusammengefasst werden.
+	 * @param millis das Fenster in Millisekunden, Default ist eine halbe Sekunde
+	 * @since 1.6
+	 */
+	public static void setRescanWindow(long millis) {
+		RescanScheduler.setWindow(millis);
+	}
 
 
 	/**
@@ -482,139 +713,510 @@ public class Environment2  {
 	 * BroadcastReceiver zum Erkennen von Wechseln bei Devices schreibt, 
 	 * sollte in dessen onReceive() diese Methode aufgerufen werden.
 	 * 
+	 * <p>Die Gerte werden parallel abgefragt; die Methode kehrt sptestens nach 
+	 * der mit {@link #setRefreshTimeout(long)} eingestellten Zeit zurck. Gerte, 
+	 * die bis dahin nicht geantwortet haben, gelten als nicht verfgbar 
+	 * (siehe {@link Device#isResponsive()}).
+	 * 
 	 * @see Environment2#registerRescanBroadcastReceiver(Context, Runnable)
 	 * @since 1.3
 	 */
 	public static void updateDevices() {
-		for (Device i : mDeviceList) {i.updateState();}
-		mPrimary.updateState();
+		DeviceRegistry r = mRegistry;
+		if (r==null) { 
+			// noch nie gescannt, dann ist ein Scan ohnehin aktuell
+			registry(); 
+			return; 
+		}
+		Metrics.count(MetricsSnapshot.COUNTER_UPDATES);
+		long start = SystemClock.elapsedRealtime();
+		// der Stand ist unvernderlich, ein paralleler Rescan strt also nicht
+		Device[] all = new Device[r.devices.length+1];
+		all[0] = r.primary;
+		System.arraycopy(r.devices, 0, all, 1, r.devices.length);
+		DeviceRefresher.refresh(all);
+		Trace.event(Trace.UPDATE, all.length, SystemClock.elapsedRealtime()-start);
+		DeviceIndex.invalidateAll();
+		DeviceEventDispatcher.publish(r);
+	}
+	
+	
+	/**
+	 * Legt fest, wie lange {@link #updateDevices()} hchstens auf die Gerte wartet.
+	 * @param millis die Zeit in Millisekunden, Default sind 2 Sekunden
+	 * @since 1.6
+	 */
+	public static void setRefreshTimeout(long millis) {
+		DeviceRefresher.setTimeout(millis);
+	}
+
+	
+	/**
+	 * Startet {@link #rescanDevices()} in einem Hintergrund-Thread, falls nicht 
+	 * schon ein Scan luft, und kehrt sofort zurck. Sinnvoll z.B. in 
+	 * Application.onCreate(), damit die Liste fertig ist, wenn sie 
+	 * gebraucht wird, ohne den UI-Thread beim Kaltstart zu bremsen.
+	 * 
+	 * @return ein {@link Future}, das nach Ende des Scans alle Devices 
+	 * 		(wie {@link #getDevices(String, boolean, boolean, boolean)} mit
+	 * 		null, false, true, false) liefert
+	 * @since 1.6
+	 */
+	public static Future<Device[]> startRescan() {
+		FutureTask<Device[]> task;
+		synchronized (mTaskLock) {
+			if (mScanTask!=null && !mScanTask.isDone()) return mScanTask;
+			task = mScanTask = newScanTask();
+		}
+		Thread t = new Thread(task, "Environment2-Scan");
+		t.setDaemon(true);
+		t.start();
+		return task;
+	}
+	
+	
+	/**
+	 * Schaltet den Cache fr die Auswertung von vold.fstab ein. Die Datei ndert
+	 * sich nur mit einem System-Update, also wird das Ergebnis im Cache-Verzeichnis
+	 * der App abgelegt und bei spteren App-Starts ohne Lesen und Auswerten 
+	 * bernommen, solange Pfad, nderungszeit und Gre der Datei sowie der
+	 * Build-Fingerprint gleich sind. Sollte vor {@link #startRescan()} bzw. vor 
+	 * dem ersten Zugriff aufgerufen werden, z.B. in Application.onCreate().
+	 * 
+	 * @param ctx der Context der App
+	 * @since 1.6
+	 */
+	public static void enableDiscoveryCache(Context ctx) {
+		if (ctx==null) throw new IllegalArgumentException("context darf nicht null sein");
+		mDiscoveryCache = new DiscoveryCache(new File(ctx.getCacheDir(), "environment2.vold"));
+	}
+	
+	
+	/**
+	 * Legt fest, wie alt der freie Speicher in {@link Device#getSize()} hchstens
+	 * sein darf. Innerhalb dieser Zeit liefert getSize() den zwischengespeicherten
+	 * Wert, ohne das Medium zu fragen; die Gesamtgre wird ohnehin nur bei 
+	 * nderungen des Mount-Zustands neu gelesen. Default sind 2 Sekunden.
+	 * @param millis das Hchstalter in Millisekunden; 0 liest jedes Mal neu
+	 * @see Device#getSize(boolean)
+	 * @since 1.6
+	 */
+	public static void setSpaceMaxAge(long millis) {
+		SpaceCache.setMaxAge(millis);
+	}
+	
+	
+	/**
+	 * Meldet einen Listener an, der nach jedem Rescan und jedem 
+	 * {@link #updateDevices()} die nderungen an den Devices mitgeteilt bekommt:
+	 * eingesteckt, entnommen, schreibgeschtzt, Speicher knapp, andere Zweit-SD.
+	 * Der Vergleich der Stnde findet einmal in der Library statt, egal wie 
+	 * viele Listener es gibt.
+	 * @param l der Listener; wird in dem Thread aufgerufen, in dem die 
+	 * 		Aktualisierung luft
+	 * @see DeviceEvent
+	 * @since 1.6
+	 */
+	public static void addDeviceListener(DeviceListener l) {
+		DeviceEventDispatcher.addListener(l);
+	}
+	
+	
+	public static void removeDeviceListener(DeviceListener l) {
+		DeviceEventDispatcher.removeListener(l);
+	}
+	
+	
+	/**
+	 * Legt fest, ab wann der freie Speicher eines Devices als knapp gilt
+	 * ({@link DeviceEvent#SPACE_LOW}).
+	 * @param bytes die Schwelle in Bytes, Default sind 50 MB; 0 schaltet
+	 * 		die Meldungen ab
+	 * @since 1.6
+	 */
+	public static void setLowSpaceThreshold(long bytes) {
+		DeviceEventDispatcher.setLowSpaceThreshold(bytes);
+	}
+	
+	
+	/**
+	 * Lsst den freien Speicher eines Devices im Hintergrund beobachten, statt
+	 * selbst regelmig {@link Device#getSize()} abzufragen. Der Listener hrt,
+	 * wenn der Speicher unter low oder critical fllt und wenn er sich wieder
+	 * erholt hat. Gemessen wird umso fter, je schneller der Speicher 
+	 * schrumpft und je nher er einer Schwelle ist, bei ruhigem Speicher 
+	 * hchstens einmal pro Minute. Verschwindet das Device bei einem Rescan 
+	 * ganz aus der Liste, wird der Listener dafr abgemeldet.
+	 * @param d das Device
+	 * @param low die erste Schwelle in Bytes
+	 * @param critical die zweite Schwelle in Bytes, nicht grer als low
+	 * @param l der Listener; wird aus einem Hintergrund-Thread aufgerufen
+	 * @since 1.6
+	 */
+	public static void addFreeSpaceListener(Device d, long low, long critical, FreeSpaceListener l) {
+		FreeSpaceWatcher.add(d, low, critical, l);
+	}
+	
+	
+	/** meldet den Listener bei allen Devices ab */
+	public static void removeFreeSpaceListener(FreeSpaceListener l) {
+		FreeSpaceWatcher.remove(l);
+	}
+	
+	
+	/**
+	 * Zeigt an, ob die Liste der Devices schon einmal erzeugt wurde. 
+	 * Blockiert nie.
+	 * @return true, wenn mindestens ein Scan abgeschlossen ist
+	 * @since 1.6
+	 */
+	public static boolean isScanned() {
+		return mRegistry!=null;
+	}
+	
+	
+	/**
+	 * Liefert ohne zu warten den zuletzt bekannten Stand der Devices, also
+	 * alle Eintrge wie {@link #getDevices(String, boolean, boolean, boolean)} 
+	 * mit null, false, true, false. Falls noch nie gescannt wurde, wird 
+	 * ein Scan im Hintergrund angestoen und ein leeres Array geliefert.
+	 * @return ein Array mit Devices, evtl. leer, nie null
+	 * @since 1.6
+	 */
+	public static Device[] getLastKnownDevices() {
+		DeviceRegistry r = mRegistry;
+		if (r==null) {
+			startRescan();
+			return new Device[0];
+		}
+		return listDevices(r, null, false, true, false);
+	}
+	
+	
+	/**
+	 * Liefert ohne zu warten die zuletzt bekannte Zweit-SD.
+	 * @return das Device der Zweit-SD oder null, falls keine vorhanden ist 
+	 * 		oder noch nie gescannt wurde (dann wird ein Scan im Hintergrund
+	 * 		angestoen)
+	 * @since 1.6
+	 */
+	public static Device getLastKnownSecondaryExternalStorage() {
+		DeviceRegistry r = mRegistry;
+		if (r==null) {
+			startRescan();
+			return null;
+		}
+		return r.secondary;
+	}
+	
+	
+	/**
+	 * Liefert den aktuellen Stand der Devices-Liste und sorgt dafr, dass sie 
+	 * vorhanden ist. Luft schon ein Scan im Hintergrund, wird auf ihn gewartet, 
+	 * sonst wird er im aufrufenden Thread durchgefhrt.
+	 * @return der aktuelle Stand, nie null
+	 */
+	static DeviceRegistry registry() {
+		DeviceRegistry r = mRegistry;
+		if (r!=null) return r;
+		FutureTask<Device[]> task;
+		synchronized (mTaskLock) {
+			if (mRegistry!=null) return mRegistry;
+			if (mScanTask==null || mScanTask.isDone()) mScanTask = newScanTask();
+			task = mScanTask;
+		}
+		// run() ist wirkungslos, falls der Task schon in einem anderen Thread luft
+		task.run();
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rescanDevices();
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Scan fehlgeschlagen", e.getCause());
+		}
+		return mRegistry;
+	}
+	
+	
+	private static FutureTask<Device[]> newScanTask() {
+		return new FutureTask<Device[]>(new Callable<Device[]>() {
+			public Device[] call() {
+				rescanDevices();
+				return listDevices(mRegistry, null, false, true, false);
+			}
+		});
 	}
 
 	
 	/**
 	 * Sucht das Gert nach internen und externen Speicherkarten und USB-Gerten
-	 * ab. Wird automatisch beim App-Start aufgerufen (in einem static-initializer) und
-	 * muss nach bisherigen Erkenntnissen nie von der App aufgerufen werden.
+	 * ab. Wird beim ersten Bedarf oder per {@link #startRescan()} im Hintergrund
+	 * aufgerufen und muss nach bisherigen Erkenntnissen nie von der App 
+	 * aufgerufen werden. Blockiert, bis der Scan fertig ist.
 	 */
-	@SuppressLint("NewApi")
 	public static void rescanDevices() {
-		mDeviceList = new ArrayList<DeviceDiv>(10);
-		mPrimary = new DeviceExternal();
+		DeviceRegistry r;
+		synchronized (mScanLock) {
+			long t = Metrics.start(), start = SystemClock.elapsedRealtime();
+			DeviceRegistry old = mRegistry;
+			r = scan();
+			mRegistry = r;
+			if (old!=null) forgetDropped(old, r);
+			Metrics.stop(MetricsSnapshot.TIMER_RESCAN, t);
+			Trace.event(Trace.RESCAN, r.devices.length, SystemClock.elapsedRealtime()-start);
+			Metrics.count(MetricsSnapshot.COUNTER_RESCANS);
+			Metrics.count(MetricsSnapshot.COUNTER_DEVICES_FOUND, r.devices.length);
+		}
+		// Listener ohne das Scan-Lock aufrufen, sie drfen selbst wieder scannen
+		DeviceEventDispatcher.publish(r);
+	}
+	
+	
+	/**
+	 * Vergisst die pro MountPoint gemerkten Daten (freier Speicher, 
+	 * Cache-Manager, Beobachtung des freien Speichers, leere Reservierungen,
+	 * Zeitmessung von updateState()) 
+	 * fr alle Devices, die der neue Stand nicht mehr enthlt, z.B. einen 
+	 * abgezogenen USB-Stick. Sonst sammelt sich jeder je gesehene MountPoint 
+	 * bis zum Ende des Prozesses an.
+	 * @since 1.6
+	 */
+	private static void forgetDropped(DeviceRegistry old, DeviceRegistry now) {
+		HashSet<String> keep = new HashSet<String>();
+		keep.add(now.primary.getMountPoint());
+		for (Device d : now.devices) keep.add(d.getMountPoint());
+		keep.add(getInternalStorage().getMountPoint());
+		ArrayList<String> dropped = new ArrayList<String>();
+		if (!keep.contains(old.primary.getMountPoint())) dropped.add(old.primary.getMountPoint());
+		for (Device d : old.devices) if (!keep.contains(d.getMountPoint())) dropped.add(d.getMountPoint());
+		for (String mp : dropped) {
+			SpaceCache.forget(mp);
+			CacheManager.forget(mp);
+			FreeSpaceWatcher.forget(mp);
+			Device.forgetLedger(mp);
+			Metrics.forgetDevice(mp);
+		}
+	}
+	
+	
+	/**
+	 * Baut einen neuen Stand auf, ohne den alten anzufassen.
+	 */
+	@SuppressLint("NewApi")
+	private static DeviceRegistry scan() {
+		ArrayList<DeviceDiv> list = new ArrayList<DeviceDiv>(10);
+		DeviceExternal primary = new DeviceExternal();
 
-		// vold.fstab lesen; TODO bei Misserfolg eine andere Methode
-		if (!scanVold("vold.fstab")) scanVold("vold.conf");
+		// vold.fstab lesen, bei Misserfolg vold.conf und als letztes mountinfo
+		if (!scanVold("vold.fstab", primary, list) && !scanVold("vold.conf", primary, list)) 
+			scanMountInfo(primary, list);
 
     	// zeigen /mnt/sdcard und /data auf denselben Speicher?
+		boolean emulated;
     	if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-    		mExternalEmulated = Environment.isExternalStorageEmulated();
+    		emulated = Environment.isExternalStorageEmulated();
     	} else {
     		// vor Honeycom gab es den unified memory noch nicht
-    		mExternalEmulated = false; 
+    		emulated = false; 
     	}
 
 		// Pfad zur zweiten SD-Karte suchen; bisher nur Methode 1 implementiert
 		// Methode 1: einfach der erste Eintrag in vold.fstab, ggf. um ein /mnt/sdcard-Doppel bereinigt
 		// Methode 2: das erste mit "sd", falls nicht vorhanden das erste mit "ext"
 		// Methode 3: das erste verfgbare
-		if (mDeviceList.size()==0) {
-			mSecondary = null;
+		DeviceDiv secondary;
+		if (list.size()==0) {
+			secondary = null;
 			// TODO Gerte mit interner SD und Android 2 wie Nexus S
-			// if (nexus) mPrimary.setRemovable(false);
+			// if (nexus) primary.setRemovable(false);
 		} else {
-			mSecondary = mDeviceList.get(0);
-			if (mSecondary.getName().contains("usb")) {
+			secondary = list.get(0);
+			if (secondary.getName().contains("usb")) {
 				// z.B. HTC One X+
-				mSecondary = null;
+				secondary = null;
 			} else {
 				// jau, SD gefunden
-				mSecondary.setName("SD-Card");
+				secondary.setName("SD-Card");
 				// Hack
-				if (mPrimary.isRemovable()) Log.w(TAG, "isExternStorageRemovable overwrite (secondary sd found) auf false");
-				mPrimary.setRemovable(false);
+				if (primary.isRemovable()) Trace.event(Trace.PRIMARY_FIXED, "secondary sd found");
+				primary.setRemovable(false);
 			}
 		}
+		Trace.event(Trace.SECONDARY, secondary==null ? null : secondary.getMountPoint(), primary.isRemovable() ? 1 : 0, 0);
+		return new DeviceRegistry(primary, secondary, list.toArray(new DeviceDiv[list.size()]), emulated);
 	}
 	
 	
 	/**
 	 * Die vold-Konfigurationsdatei auswerten, die blicherweise 
-	 * in /system/etc/ liegt. 
+	 * in /system/etc/ liegt. Das Zerlegen bernimmt {@link VoldParser}, die
+	 * Auswertung {@link #parseVold(File, String)}; falls per 
+	 * {@link #enableDiscoveryCache(Context)} eingeschaltet, kommt das Ergebnis
+	 * aus dem {@link DiscoveryCache}, und es werden nur noch die Devices angelegt.
 	 * @param name ein String mit dem Dateinamen (vold.fstab oder vold.conf)
-	 * @return true, wenn geklappt hat; false, wenn Datei nicht (vollstndig) 
-	 * 		gelesen werden konnte. Falls false, werden die bisher gelesenen
-	 * 		Devices nicht wieder gelscht, sondern bleiben in der Liste 
-	 * 		enthalten. Bisher ist mir aber noch kein Gert untergekommen,
-	 * 		bei dem dieser Trick nicht funktioniert hat.
-	 */
-	private static boolean scanVold(String name) {
-		String s, f;
-		boolean prefixScan = true; // sdcard-Prefixes
-		SimpleStringSplitter sp = new SimpleStringSplitter(' ');
-    	try {
-    		BufferedReader buf = new BufferedReader(new FileReader(Environment.getRootDirectory().getAbsolutePath()+"/etc/"+name), 2048);
-    		s = buf.readLine();
-    		while (s!=null) {
-    			sp.setString(s.trim());
-    			f = sp.next(); // dev_mount oder anderes
-        		if ("dev_mount".equals(f)) {
-        			DeviceDiv d = new DeviceDiv(sp);
-        			
-        			if (TextUtils.equals(mPrimary.getMountPoint(), d.getMountPoint())) {
-        				// ein wenig Spezialkrams ber /mnt/sdcard herausfinden
-        				
-        				// wenn die Gingerbread-Funktion isExternalStorageRemovable nicht da ist, diesen Hinweis nutzen
-        				if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) 
-        					mPrimary.setRemovable(true); 
-        					// dann ist auch der Standard-Eintrag removable
-        					// eigentlich reicht das hier nicht, denn die vold-Eintrge fr die primre SD-Karte sind viel komplexer, 
-        					// oft steht da was von non-removable. Doch diese ganzen proprietren Klamotten auszuwerden,
-        					// wre viel zu komplex. Ein gangbarer Kompromiss scheint zu sein, sich ab 2.3 einfach auf
-        					// isExternalStorageRemovable zu verlassen, was schon oben in Device() gesetzt wird. Bei den
-        					// bisher aufgetauchten Gerten mit 2.2 wiederum scheint der Hinweis in vold zu klappen.vccfg
-        				
-        				// z.B. Galaxy Note hngt "encryptable_nonremovable" an
-        				while (sp.hasNext()) {
-        					f = sp.next();
-        					if (f.contains("nonremovable")) {
-        						mPrimary.setRemovable(false);
-        						Log.w(TAG, "isExternStorageRemovable overwrite ('nonremovable') auf false");
-        					}
-        				}
-        				prefixScan = false;
-        			} else 
-        				// nur in Liste aufnehmen, falls nicht Dupe von /mnt/sdcard
-        				mDeviceList.add(d);
-        			
-        		} else if (prefixScan) {
-        			// Weitere Untersuchungen nur, wenn noch vor sdcard-Eintrag
-        			// etwas unsauber, da es eigentlich in {} vorkommen muss, was ich hier nicht berprfe
-        			
-        			if ("discard".equals(f)) {
-        				// manche (Galaxy Note) schreiben "discard=disable" vor den sdcard-Eintrag.
-        				sp.next(); // "="
-        				f = sp.next();
-        				if ("disable".equals(f)) {
-        					mPrimary.setRemovable(false);
-        					Log.w(TAG, "isExternStorageRemovable overwrite ('discard=disable') auf false");
-        				} else if ("enable".equals(f)) {
-        					// ha, denkste...  bisher habe ich den Eintrag nur bei zwei Handys gefunden, (Galaxy Note, Galaxy Mini 2), und
-        					// da stimmte er *nicht*, sondern die Karten waren nicht herausnehmbar.
-        					// mPrimary.mRemovable = true;
-        					Log.w(TAG, "isExternStorageRemovable overwrite overwrite ('discard=enable'), bleibt auf "+mPrimary.isRemovable());
-        				} else
-        					Log.w(TAG, "disable-Eintrag unverstndlich: "+f);
-        			}
-        			
-        		}
-    			s = buf.readLine();
-    		}
-    		buf.close();
-    		Log.v(TAG, name+" gelesen; Gerte gefunden: "+mDeviceList.size());
-    		return true;
-    	} catch (Exception e) {
-    		Log.e(TAG, "kann "+name+" nicht lesen: "+e.getMessage());
-    		return false;
-    	}
+	 * @return true, wenn geklappt hat; false, wenn Datei nicht gelesen werden 
+	 * 		konnte. Falls false, bleibt die Liste unverndert. Bisher ist mir
+	 * 		aber noch kein Gert untergekommen, bei dem dieser Trick nicht 
+	 * 		funktioniert hat.
+	 */
+	private static boolean scanVold(String name, DeviceExternal primary, ArrayList<DeviceDiv> list) {
+		File f = new File(Environment.getRootDirectory(), "etc/"+name);
+		long time = Metrics.start();
+		DiscoveryCache cache = mDiscoveryCache;
+		DiscoveryCache.Table t = cache==null ? null : cache.load(f, primary.getMountPoint());
+		int lines = 0; // bei einem Treffer im Cache nichts gelesen
+		if (t!=null) {
+			Trace.event(Trace.VOLD_CACHED, name);
+		} else {
+			t = parseVold(f, primary.getMountPoint());
+			if (t==null) {
+				Trace.event(Trace.VOLD_FAILED, name);
+				return false;
+			}
+			lines = mVoldParser.getLineCount();
+			if (cache!=null) cache.store(f, primary.getMountPoint(), t);
+		}
+		
+		if (t.primary!=DiscoveryCache.PRIMARY_UNCHANGED) 
+			primary.setRemovable(t.primary==DiscoveryCache.PRIMARY_REMOVABLE);
+		for (int i=0; i<t.labels.length; i++) {
+			list.add(new DeviceDiv(t.labels[i], t.mountPoints[i], primary));
+			Trace.event(Trace.VOLD_DEVICE, t.labels[i], t.mountPoints[i]);
+		}
+		Metrics.stop(MetricsSnapshot.TIMER_SCAN_VOLD, time);
+		Trace.event(Trace.VOLD_READ, name, lines, list.size());
+		return true;
+	}
+	
+	
+	/**
+	 * Zerlegt die vold-Datei und wertet die Eintrge aus, ohne schon Devices 
+	 * anzulegen, damit das Ergebnis im {@link DiscoveryCache} landen kann.
+	 * @param primary der MountPoint der primren SD-Karte
+	 * @return die Auswertung oder null, falls die Datei nicht gelesen werden konnte
+	 */
+	private static DiscoveryCache.Table parseVold(File f, String primary) {
+		ArrayList<VoldParser.Entry> entries = new ArrayList<VoldParser.Entry>(10);
+		if (!mVoldParser.parse(f, entries)) return null;
+		Metrics.count(MetricsSnapshot.COUNTER_VOLD_LINES, mVoldParser.getLineCount());
+		ArrayList<String> labels = new ArrayList<String>(entries.size());
+		ArrayList<String> mountPoints = new ArrayList<String>(entries.size());
+		byte result = DiscoveryCache.PRIMARY_UNCHANGED;
+		for (VoldParser.Entry e : entries) {
+			if (TextUtils.equals(primary, e.mountPoint)) {
+				// ein wenig Spezialkrams ber /mnt/sdcard herausfinden
+				
+				// wenn die Gingerbread-Funktion isExternalStorageRemovable nicht da ist, diesen Hinweis nutzen
+				if (Build.VERSION.SDK_INT < Build.VERSION_CODES.GINGERBREAD) 
+					result = DiscoveryCache.PRIMARY_REMOVABLE; 
+					// dann ist auch der Standard-Eintrag removable
+					// eigentlich reicht das hier nicht, denn die vold-Eintrge fr die primre SD-Karte sind viel komplexer, 
+					// oft steht da was von non-removable. Doch diese ganzen proprietren Klamotten auszuwerden,
+					// wre viel zu komplex. Ein gangbarer Kompromiss scheint zu sein, sich ab 2.3 einfach auf
+					// isExternalStorageRemovable zu verlassen, was schon oben in Device() gesetzt wird. Bei den
+					// bisher aufgetauchten Gerten mit 2.2 wiederum scheint der Hinweis in vold zu klappen.vccfg
+				
+				// z.B. Galaxy Note hngt "encryptable_nonremovable" an
+				if (e.hasFlag(VoldParser.FLAG_NONREMOVABLE)) {
+					result = DiscoveryCache.PRIMARY_FIXED;
+					Trace.event(Trace.PRIMARY_FIXED, "'nonremovable'");
+				}
+				
+				// manche (Galaxy Note) schreiben "discard=disable" in den {}-Block vor dem sdcard-Eintrag.
+				if (e.hasFlag(VoldParser.FLAG_DISCARD_DISABLE)) {
+					result = DiscoveryCache.PRIMARY_FIXED;
+					Trace.event(Trace.PRIMARY_FIXED, "'discard=disable'");
+				} else if (e.hasFlag(VoldParser.FLAG_DISCARD_ENABLE)) {
+					// ha, denkste...  bisher habe ich den Eintrag nur bei zwei Handys gefunden, (Galaxy Note, Galaxy Mini 2), und
+					// da stimmte er *nicht*, sondern die Karten waren nicht herausnehmbar.
+					// result = DiscoveryCache.PRIMARY_REMOVABLE;
+					Trace.event(Trace.DISCARD_IGNORED);
+				}
+			} else {
+				// nur in Liste aufnehmen, falls nicht Dupe von /mnt/sdcard
+				labels.add(e.label);
+				mountPoints.add(e.mountPoint);
+			}
+		}
+		return new DiscoveryCache.Table(labels.toArray(new String[labels.size()]), 
+				mountPoints.toArray(new String[mountPoints.size()]), result);
+	}
+	
+
+	/**
+	 * Sucht die Devices in /proc/self/mountinfo, falls es weder vold.fstab noch
+	 * vold.conf gibt. In Frage kommen nur Dateisysteme, wie sie fr SD-Karten und 
+	 * USB-Sticks blich sind, und nur unterhalb von /storage, /mnt und /Removable.
+	 * <p>
+	 * Da bei jedem Broadcast neu gescannt werden kann, baut {@link MountInfo}
+	 * nur genderte Zeilen neu auf; fr unvernderte Eintrge wird hier das 
+	 * bisherige {@link DeviceDiv} weiterbenutzt, aber sein Zustand neu bestimmt.
+	 * @return true, wenn mountinfo gelesen werden konnte
+	 * @since 1.6
+	 */
+	private static boolean scanMountInfo(DeviceExternal primary, ArrayList<DeviceDiv> list) {
+		if (mMountInfo.parse()) {
+			Metrics.count(MetricsSnapshot.COUNTER_MOUNTINFO_LINES, mMountInfo.getParsedCount());
+			Trace.event(Trace.MOUNTINFO_PARSED, mMountInfo.getParsedCount(), 0);
+		}
+		ArrayList<MountInfo.Entry> entries = mMountInfo.getEntries();
+		if (entries.isEmpty()) {
+			Trace.event(Trace.MOUNTINFO_FAILED);
+			return false;
+		}
+		HashMap<MountInfo.Entry, DeviceDiv> devices = new HashMap<MountInfo.Entry, DeviceDiv>();
+		for (MountInfo.Entry e : entries) {
+			if (!isStorageMount(e, primary)) continue;
+			DeviceDiv d = mMountDevices.get(e);
+			if (d==null) d = new DeviceDiv(e, primary); 
+			else {
+				// Verfgbarkeit und die Prfung auf Mount in der neuen primren neu bestimmen
+				d.setPrimary(primary);
+				d.updateState();
+			}
+			devices.put(e, d);
+			list.add(d);
+		}
+		mMountDevices = devices;
+		Trace.event(Trace.MOUNTINFO_READ, list.size(), 0);
+		return true;
+	}
+	
+	
+	/**
+	 * Liest mountinfo ab dem nchsten Scan aus f statt aus /proc/self/mountinfo
+	 * und vergisst die bisher daraus erzeugten Devices; fr den Replay 
+	 * aufgezeichneter Gerte in bench/.
+	 * @since 1.6
+	 */
+	static void setMountInfoFile(File f) {
+		synchronized (mScanLock) {
+			mMountInfo = new MountInfo(f);
+			mMountDevices = new HashMap<MountInfo.Entry, DeviceDiv>();
+		}
+	}
+	
+	
+	private static final String[] MOUNT_FS = {
+		"vfat", "exfat", "texfat", "sdfat", "ntfs", "fuse", "fuseblk", "sdcardfs"
+	};
+	private static final String[] MOUNT_ROOTS = { "/storage/", "/mnt/", "/Removable/" };
+	private static final String[] MOUNT_IGNORE = {
+		"/storage/emulated", "/mnt/secure", "/mnt/asec", "/mnt/obb", "/mnt/shell",
+		"/mnt/media_rw", "/mnt/runtime", "/mnt/user", "/mnt/expand"
+	};
+	
+	private static boolean isStorageMount(MountInfo.Entry e, DeviceExternal primary) {
+		if (TextUtils.equals(primary.getMountPoint(), e.mountPoint)) return false;
+		boolean ok = false;
+		for (String fs : MOUNT_FS) if (fs.equals(e.fsType)) { ok = true; break; }
+		if (!ok) return false;
+		ok = false;
+		for (String r : MOUNT_ROOTS) if (e.mountPoint.startsWith(r)) { ok = true; break; }
+		if (!ok) return false;
+		for (String i : MOUNT_IGNORE) if (e.mountPoint.startsWith(i)) return false;
+		return true;
 	}
 	
 
@@ -633,34 +1235,55 @@ public class Environment2  {
 	 * 		aber nicht key).
 	 * @param data ein Boolean, der bestimmt, ob der data-Speicher (/data) mit
 	 * 		in die Liste bernommen wird
-	 * @return ein Array mit allen {@link Device}, die den Suchkriterien entsprechen
+	 * @return ein Array mit allen {@link Device}, die den Suchkriterien entsprechen.
+	 * 		Seit 1.6 wird das Array bis zum nchsten Rescan oder {@link #updateDevices()}
+	 * 		wiederverwendet und darf deshalb nicht verndert werden.
 	 */
 	public static Device[] getDevices(String key, boolean available, boolean intern, boolean data) {
-		if (key!=null) key = key.toLowerCase();
-		ArrayList<Device> temp = new ArrayList<Device>(mDeviceList.size()+2);
-		if (data) temp.add(getInternalStorage());
-		if (intern && ( !available || mPrimary.isAvailable())) temp.add(mPrimary);
-		for (Device d : mDeviceList) {
-			if ( ((key==null) || d.getName().toLowerCase().contains(key)) && (!available || d.isAvailable()) ) temp.add(d);
-		}
-		return temp.toArray(new Device[temp.size()]);
+		return listDevices(registry(), key, available, intern, data);
+	}
+	
+	
+	private static Device[] listDevices(DeviceRegistry r, String key, boolean available, boolean intern, boolean data) {
+		return r.index().query(key, available, intern, data);
 	}
 	
 
+	/**
+	 * Sucht das Device, auf dem eine Datei liegt. Bei verschachtelten Mounts
+	 * (etwa /mnt/sdcard/external_sd in /mnt/sdcard) gewinnt der lngste
+	 * passende MountPoint, auch wenn dessen Device gerade nicht verfgbar ist;
+	 * das sollte der Aufrufer mit {@link Device#isAvailable()} prfen. Es wird nur
+	 * der Pfad verglichen, das Dateisystem wird dabei nicht angefasst, 
+	 * symbolische Links also nicht aufgelst.
+	 * 
+	 * @param f die Datei oder das Verzeichnis, muss nicht existieren
+	 * @return das Device oder null, falls f auf keinem bekannten Device liegt
+	 * @since 1.6
+	 */
+	public static Device getDeviceForPath(File f) {
+		if (f==null) throw new IllegalArgumentException("f darf nicht null sein");
+		return registry().trie().find(f.getAbsolutePath());
+	}
+	
+	
 	public static Device getPrimaryExternalStorage() {
-		return mPrimary;
+		return registry().primary;
 	}
 	
 	
 	public static Device getSecondaryExternalStorage() throws NoSecondaryStorageException {
-		if (mSecondary==null) throw new NoSecondaryStorageException();
-		return mSecondary;
+		DeviceDiv secondary = registry().secondary;
+		if (secondary==null) throw new NoSecondaryStorageException();
+		return secondary;
 	}
 	
 	
 	public static Device getInternalStorage() {
-		if (mInternal==null) mInternal = new DeviceIntern();
-		return mInternal;
+		// bei gleichzeitigem Aufruf werden evtl. zwei erzeugt, was nicht schadet
+		Device d = mInternal;
+		if (d==null) mInternal = d = new DeviceIntern();
+		return d;
 	}
 	
 	
@@ -0,0 +1,25 @@
+package de.jockels.open;
+
+/**
+ * Wird von {@link Environment2#addFreeSpaceListener(Device, long, long, FreeSpaceListener)}
+ * benachrichtigt, wenn der freie Speicher eines Devices unter eine der beiden
+ * Schwellen fllt oder sich wieder erholt. Der Aufruf kommt aus einem
+ * Hintergrund-Thread.
+ *
+ * @since 1.6
+ */
+public interface FreeSpaceListener {
+	/** genug Platz */
+	int LEVEL_OK = 0;
+	/** unter der low-Schwelle */
+	int LEVEL_LOW = 1;
+	/** unter der critical-Schwelle */
+	int LEVEL_CRITICAL = 2;
+
+	/**
+	 * @param d das Device
+	 * @param level der neue Zustand, eine der Konstanten LEVEL_xxx
+	 * @param free der gerade gemessene freie Speicher in Bytes
+	 */
+	void onSpaceLevel(Device d, int level, long free);
+}
@@ -0,0 +1,209 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Beobachtet den freien Speicher der Devices, fr die ein 
+ * {@link FreeSpaceListener} angemeldet ist. Pro MountPoint gibt es eine 
+ * Messung, egal wie viele Listener dort hngen. Der Abstand der Messungen 
+ * passt sich an: Bleibt der freie Speicher gleich oder wchst, verdoppelt 
+ * er sich bis auf {@link #MAX_INTERVAL}; nimmt er ab, wird so oft gemessen, 
+ * dass die nchste Schwelle bei gleichem Tempo etwa vier Messungen entfernt 
+ * ist, aber nicht fter als alle {@link #MIN_INTERVAL} Millisekunden. Liegt
+ * der freie Speicher weniger als den Abstand unten ber einer Schwelle, wird 
+ * unabhngig vom Tempo mindestens alle {@link #NEAR_INTERVAL} Millisekunden 
+ * gemessen. Ein neu angemeldeter Listener lst sofort eine Messung aus.
+ * <p>
+ * Damit die Listener nicht flattern, wenn der Speicher um eine Schwelle 
+ * pendelt, gilt ein Zustand erst als berwunden, wenn die Schwelle um ein 
+ * Zehntel (mindestens 1 MB) berschritten ist.
+ * <p>
+ * Gemessen wird ber {@link SpaceCache}, so dass die Werte auch bei 
+ * {@link Device#getSize()} ankommen.
+ *
+ * @since 1.6
+ */
+final class FreeSpaceWatcher {
+	private static final String TAG = "FreeSpaceWatcher";
+	static final long MIN_INTERVAL = 500;
+	static final long MAX_INTERVAL = 60000;
+	static final long NEAR_INTERVAL = 5000;
+	private static final long MIN_MARGIN = 1024*1024;
+
+	private static final class Watch {
+		final FreeSpaceListener listener;
+		final long low, critical;
+		int level = FreeSpaceListener.LEVEL_OK;
+
+		Watch(FreeSpaceListener l, long low, long critical) {
+			listener = l;
+			this.low = low;
+			this.critical = critical;
+		}
+	}
+
+	private static final HashMap<String, Mount> mMounts = new HashMap<String, Mount>();
+	private static ScheduledExecutorService mExecutor = null;
+
+	private FreeSpaceWatcher() {}
+
+
+	static void add(Device d, long low, long critical, FreeSpaceListener l) {
+		if (d==null) throw new IllegalArgumentException("device darf nicht null sein");
+		if (l==null) throw new IllegalArgumentException("listener darf nicht null sein");
+		if (critical<0 || low<critical) throw new IllegalArgumentException("es muss 0 <= critical <= low gelten");
+		synchronized (mMounts) {
+			Mount m = mMounts.get(d.getMountPoint());
+			if (m==null) {
+				m = new Mount(d.getMountPoint());
+				mMounts.put(d.getMountPoint(), m);
+			}
+			m.watches.add(new Watch(l, low, critical));
+			// gleich messen, auch wenn der MountPoint schon beobachtet wird
+			m.schedule(0);
+		}
+	}
+
+
+	static void remove(FreeSpaceListener l) {
+		synchronized (mMounts) {
+			for (Iterator<Mount> it = mMounts.values().iterator(); it.hasNext(); ) {
+				Mount m = it.next();
+				for (Watch w : m.watches) if (w.listener==l) m.watches.remove(w);
+				if (m.watches.isEmpty()) it.remove();
+			}
+		}
+	}
+
+
+	/** beendet die Beobachtung eines MountPoints, den ein Rescan nicht mehr gefunden hat */
+	static void forget(String mountPoint) {
+		synchronized (mMounts) {
+			Mount m = mMounts.remove(mountPoint);
+			if (m!=null && m.pending!=null) m.pending.cancel(false);
+		}
+	}
+
+
+	private static final class Mount {
+		final String mountPoint;
+		final File file;
+		final CopyOnWriteArrayList<Watch> watches = new CopyOnWriteArrayList<Watch>();
+		long lastFree = -1, lastTime;
+		long interval = MIN_INTERVAL;
+		// nur mit Lock auf mMounts: die gltige Messung, ltere tun nichts mehr
+		int generation = 0;
+		ScheduledFuture<?> pending = null;
+
+		Mount(String mountPoint) {
+			this.mountPoint = mountPoint;
+			file = new File(mountPoint);
+		}
+
+		/** plant die nchste Messung und macht alle bisher geplanten ungltig; nur mit Lock auf mMounts */
+		void schedule(long delay) {
+			final int g = ++generation;
+			if (pending!=null) pending.cancel(false);
+			pending = executor().schedule(new Runnable() {
+				public void run() { Mount.this.run(g); }
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
+		private boolean isCurrent(int g) {
+			// abgemeldet oder inzwischen neu geplant?
+			return mMounts.get(mountPoint)==this && g==generation;
+		}
+
+		void run(int g) {
+			synchronized (mMounts) {
+				if (!isCurrent(g)) return;
+			}
+			try {
+				sample();
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Messung fehlgeschlagen: "+mountPoint, e);
+			}
+			synchronized (mMounts) {
+				if (isCurrent(g)) schedule(interval);
+			}
+		}
+
+		private void sample() {
+			// das aktuelle Device-Objekt, nach einem Rescan ist es ein anderes
+			Device d = Environment2.getDeviceForPath(file);
+			if (d==null || !mountPoint.equals(d.getMountPoint()) || !d.isAvailable()) {
+				lastFree = -1;
+				interval = MAX_INTERVAL;
+				return;
+			}
+			long now = SystemClock.elapsedRealtime();
+			long free = SpaceCache.get(mountPoint, true).getFree();
+
+			long next = 0; // die nchste Schwelle unterhalb von free
+			for (Watch w : watches) {
+				int level = level(w, free);
+				if (level!=w.level) {
+					w.level = level;
+					w.listener.onSpaceLevel(d, level, free);
+				}
+				if (w.low<free && w.low>next) next = w.low;
+				if (w.critical<free && w.critical>next) next = w.critical;
+			}
+
+			long used = lastFree<0 ? 0 : lastFree-free;
+			if (used>0 && now>lastTime) {
+				// bei gleichem Tempo nach wie vielen ms an der nchsten Schwelle?
+				long eta = (free-next)*(now-lastTime)/used;
+				interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, eta/4));
+			} else {
+				interval = Math.min(MAX_INTERVAL, interval*2);
+			}
+			// knapp ber einer Schwelle nicht zu lange warten, auch wenn sich nichts tut
+			if (next>0 && free-next<margin(next)) interval = Math.min(interval, NEAR_INTERVAL);
+			lastFree = free;
+			lastTime = now;
+		}
+	}
+
+
+	/** der neue Zustand, mit Abstand beim Verlassen eines schlechteren */
+	private static int level(Watch w, long free) {
+		int level = free<w.critical ? FreeSpaceListener.LEVEL_CRITICAL 
+				: free<w.low ? FreeSpaceListener.LEVEL_LOW : FreeSpaceListener.LEVEL_OK;
+		if (level<w.level) {
+			if (w.level==FreeSpaceListener.LEVEL_CRITICAL && free<w.critical+margin(w.critical)) 
+				level = FreeSpaceListener.LEVEL_CRITICAL;
+			else if (free<w.low+margin(w.low)) 
+				level = Math.max(level, FreeSpaceListener.LEVEL_LOW);
+		}
+		return level;
+	}
+
+
+	private static long margin(long threshold) {
+		return Math.max(MIN_MARGIN, threshold/10);
+	}
+
+
+	private static ScheduledExecutorService executor() {
+		if (mExecutor==null) mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Environment2-FreeSpace");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return mExecutor;
+	}
+}
@@ -0,0 +1,84 @@
+package de.jockels.open;
+
+/**
+ * Count-Min-Sketch mit 4-Bit-Zhlern zum Schtzen, wie oft ein Schlssel
+ * benutzt wurde, fr {@link TieredStore}. Pro Schlssel werden vier Zhler in
+ * verschiedenen Zeilen erhht, die Schtzung ist das Minimum davon; 16 Zhler 
+ * passen in ein long, so dass die ganze Tabelle bei n erwarteten Schlsseln 
+ * nur etwa 8n Bytes braucht. Nach 10n Zugriffen werden alle Zhler halbiert,
+ * damit alte Hufigkeiten verblassen.
+ * <p>
+ * Nicht thread-safe.
+ *
+ * @since 1.6
+ */
+final class FrequencySketch {
+	static final int MAX = 15;
+	private static final long[] SEED = { 
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+	private static final long HALF_MASK = 0x7777777777777777L;
+
+	private final long[] mTable;
+	private final int mMask;
+	private final int mSampleSize;
+	private int mAdditions = 0;
+
+	/** @param expected wie viele Schlssel etwa gleichzeitig vorkommen */
+	FrequencySketch(int expected) {
+		int size = 16;
+		while (size<expected && size<(1<<26)) size <<= 1;
+		mTable = new long[size];
+		mMask = size-1;
+		mSampleSize = 10*size;
+	}
+
+
+	/** @return die geschtzte Hufigkeit, 0 bis {@link #MAX} */
+	int frequency(Object key) {
+		int h = spread(key.hashCode());
+		int start = (h & 3) << 2;
+		int min = MAX;
+		for (int i=0; i<4; i++) {
+			int c = (int)((mTable[index(h, i)] >>> ((start+i) << 2)) & 0xfL);
+			if (c<min) min = c;
+		}
+		return min;
+	}
+
+
+	/** zhlt einen Zugriff */
+	void increment(Object key) {
+		int h = spread(key.hashCode());
+		int start = (h & 3) << 2;
+		boolean added = false;
+		for (int i=0; i<4; i++) {
+			int index = index(h, i);
+			int shift = (start+i) << 2;
+			if (((mTable[index] >>> shift) & 0xfL) < MAX) {
+				mTable[index] += 1L << shift;
+				added = true;
+			}
+		}
+		if (added && ++mAdditions==mSampleSize) reset();
+	}
+
+
+	private void reset() {
+		for (int i=0; i<mTable.length; i++) mTable[i] = (mTable[i] >>> 1) & HALF_MASK;
+		mAdditions >>>= 1;
+	}
+
+
+	private int index(int h, int row) {
+		long hash = (h + SEED[row]) * SEED[row];
+		hash += hash >>> 32;
+		return (int)hash & mMask;
+	}
+
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
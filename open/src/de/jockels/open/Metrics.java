@@ -0,0 +1,125 @@
+package de.jockels.open;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Zhler und Zeitmessungen der Library, siehe {@link MetricsSnapshot} fr die 
+ * Bedeutung. Aufgezeichnet wird ohne Locks und ohne Objekte zu erzeugen, nur
+ * mit atomaren long-Operationen. Ausgeschaltet (der Default) kostet jede
+ * Messstelle nur das Lesen eines volatile-Felds; {@link #start()} liefert 
+ * dann 0, und {@link #stop(int, long)} tut nichts.
+ * <p>
+ * Die Dauer von updateState() wird zustzlich pro MountPoint gemessen; auch
+ * diese Timer sind statisch, damit sie einen Rescan berstehen, der neue 
+ * Device-Objekte erzeugt.
+ *
+ * @see Environment2#setMetricsEnabled(boolean, boolean)
+ * @since 1.6
+ */
+final class Metrics {
+	static volatile boolean mEnabled = false;
+
+	private static final AtomicLongArray mCounters = new AtomicLongArray(MetricsSnapshot.COUNTERS);
+	private static final Timer[] mTimers = new Timer[MetricsSnapshot.TIMERS];
+	static {
+		for (int i=0; i<mTimers.length; i++) mTimers[i] = new Timer();
+	}
+	private static final ConcurrentHashMap<String, Timer> mDeviceTimers = new ConcurrentHashMap<String, Timer>();
+
+	private Metrics() {}
+
+
+	static void count(int counter) {
+		if (mEnabled) mCounters.incrementAndGet(counter);
+	}
+
+	static void count(int counter, long n) {
+		if (mEnabled) mCounters.addAndGet(counter, n);
+	}
+
+
+	/** @return der Startzeitpunkt fr {@link #stop(int, long)} oder 0, falls ausgeschaltet */
+	static long start() {
+		return mEnabled ? System.nanoTime() : 0;
+	}
+
+	static void stop(int timer, long start) {
+		if (start!=0) mTimers[timer].record(System.nanoTime()-start);
+	}
+
+	/** wie {@link #stop(int, long)} fr den Timer von updateState() eines MountPoints */
+	static void stopDevice(String mountPoint, long start) {
+		if (start==0) return;
+		Timer t = mDeviceTimers.get(mountPoint);
+		if (t==null) {
+			Timer n = new Timer();
+			t = mDeviceTimers.putIfAbsent(mountPoint, n);
+			if (t==null) t = n;
+		}
+		t.record(System.nanoTime()-start);
+	}
+
+	/** vergisst den Timer eines MountPoints, den ein Rescan nicht mehr gefunden hat */
+	static void forgetDevice(String mountPoint) {
+		mDeviceTimers.remove(mountPoint);
+	}
+
+
+	static MetricsSnapshot snapshot() {
+		long[] counters = new long[MetricsSnapshot.COUNTERS];
+		for (int i=0; i<counters.length; i++) counters[i] = mCounters.get(i);
+		MetricsSnapshot.Timer[] timers = new MetricsSnapshot.Timer[MetricsSnapshot.TIMERS];
+		for (int i=0; i<timers.length; i++) timers[i] = mTimers[i].snapshot();
+		MetricsSnapshot m = new MetricsSnapshot(counters, timers);
+		for (Map.Entry<String, Timer> e : mDeviceTimers.entrySet()) m.addDevice(e.getKey(), e.getValue().snapshot());
+		return m;
+	}
+
+
+	static void reset() {
+		for (int i=0; i<MetricsSnapshot.COUNTERS; i++) mCounters.set(i, 0);
+		for (Timer t : mTimers) t.reset();
+		for (Timer t : mDeviceTimers.values()) t.reset();
+	}
+
+
+	/**
+	 * Histogramm ber Mikrosekunden mit Zweierpotenzen als Grenzen: Fach i 
+	 * zhlt Werte unter 2^i s, das letzte alles darber.
+	 */
+	static final class Timer {
+		static final int BUCKETS = 32;
+		private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong mCount = new AtomicLong(0);
+		private final AtomicLong mTotal = new AtomicLong(0);
+		private final AtomicLong mMax = new AtomicLong(0);
+
+		void record(long nanos) {
+			long us = nanos/1000;
+			if (us<0) us = 0;
+			mBuckets.incrementAndGet(Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(us)));
+			mCount.incrementAndGet();
+			mTotal.addAndGet(us);
+			for (;;) {
+				long max = mMax.get();
+				if (us<=max || mMax.compareAndSet(max, us)) break;
+			}
+		}
+
+		MetricsSnapshot.Timer snapshot() {
+			long[] b = new long[BUCKETS];
+			for (int i=0; i<BUCKETS; i++) b[i] = mBuckets.get(i);
+			return new MetricsSnapshot.Timer(mCount.get(), mTotal.get(), mMax.get(), b);
+		}
+
+		void reset() {
+			for (int i=0; i<BUCKETS; i++) mBuckets.set(i, 0);
+			mCount.set(0);
+			mTotal.set(0);
+			mMax.set(0);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package de.jockels.open;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stand der Zhler und Zeitmessungen der Library zu einem Zeitpunkt, wie ihn
+ * {@link Environment2#getMetrics()} liefert. Gezhlt wird nur, solange
+ * {@link Environment2#setMetricsEnabled(boolean, boolean)} eingeschaltet ist.
+ * {@link #toString()} liefert alles als Text, etwa fr ein Log oder einen 
+ * Fehlerbericht.
+ *
+ * @since 1.6
+ */
+public final class MetricsSnapshot {
+	/** Anzahl von {@link Environment2#rescanDevices()} */
+	public static final int COUNTER_RESCANS = 0;
+	/** von {@link VoldParser} gelesene Zeilen */
+	public static final int COUNTER_VOLD_LINES = 1;
+	/** neu zerlegte Zeilen aus /proc/self/mountinfo */
+	public static final int COUNTER_MOUNTINFO_LINES = 2;
+	/** bei Rescans gefundene Devices (ohne die primre SD) */
+	public static final int COUNTER_DEVICES_FOUND = 3;
+	/** empfangene Media-Broadcasts */
+	public static final int COUNTER_BROADCASTS = 4;
+	/** tatschlich ausgefhrte {@link Environment2#updateDevices()} */
+	public static final int COUNTER_UPDATES = 5;
+	/** statfs-Aufrufe */
+	public static final int COUNTER_STATFS = 6;
+	/** Versuche, App-Verzeichnisse anzulegen (mkdir/mkdirs) */
+	public static final int COUNTER_MKDIRS = 7;
+	static final int COUNTERS = 8;
+
+	/** Dauer von {@link Environment2#rescanDevices()} */
+	public static final int TIMER_RESCAN = 0;
+	/** Dauer des Auswertens von vold.fstab bzw. vold.conf */
+	public static final int TIMER_SCAN_VOLD = 1;
+	/** Dauer von updateState() ber alle Devices */
+	public static final int TIMER_UPDATE_STATE = 2;
+	/** Dauer eines statfs-Aufrufs */
+	public static final int TIMER_STATFS = 3;
+	static final int TIMERS = 4;
+
+	private static final String[] COUNTER_NAMES = { 
+		"rescans", "vold lines", "mountinfo lines", "devices found", "broadcasts", "updates", "statfs", "mkdirs" };
+	private static final String[] TIMER_NAMES = { "rescan", "scanVold", "updateState", "statfs" };
+
+
+	/** Auswertung einer Zeitmessung, alle Zeiten in Mikrosekunden */
+	public static final class Timer {
+		private final long mCount, mTotal, mMax;
+		private final long[] mBuckets;
+
+		Timer(long count, long total, long max, long[] buckets) {
+			mCount = count;
+			mTotal = total;
+			mMax = max;
+			mBuckets = buckets;
+		}
+
+		public long getCount() { return mCount; }
+		public long getTotalMicros() { return mTotal; }
+		public long getMaxMicros() { return mMax; }
+		public long getMeanMicros() { return mCount==0 ? 0 : mTotal/mCount; }
+
+		/**
+		 * @param p zwischen 0 und 1, z.B. 0.99
+		 * @return eine obere Schranke fr das Perzentil; die Fcher sind 
+		 * 		Zweierpotenzen, das Ergebnis also bis zu doppelt so gro
+		 */
+		public long getPercentileMicros(double p) {
+			if (mCount==0) return 0;
+			long rank = (long)Math.ceil(p*mCount), sum = 0;
+			for (int i=0; i<mBuckets.length; i++) {
+				sum += mBuckets[i];
+				if (sum>=rank) return Math.min(mMax, i==0 ? 0 : (1L<<i)-1);
+			}
+			return mMax;
+		}
+
+		@Override
+		public String toString() {
+			return "n=" + mCount + " mean=" + getMeanMicros() + "us p50=" + getPercentileMicros(0.5) 
+					+ "us p99=" + getPercentileMicros(0.99) + "us max=" + mMax + "us";
+		}
+	}
+
+
+	private final long[] mCounters;
+	private final Timer[] mTimers;
+	private final Map<String, Timer> mDevices = new LinkedHashMap<String, Timer>();
+
+	MetricsSnapshot(long[] counters, Timer[] timers) {
+		mCounters = counters;
+		mTimers = timers;
+	}
+
+	void addDevice(String mountPoint, Timer t) { mDevices.put(mountPoint, t); }
+
+	/** @param counter eine der Konstanten COUNTER_xxx */
+	public long getCount(int counter) { return mCounters[counter]; }
+
+	/** @param timer eine der Konstanten TIMER_xxx */
+	public Timer getTimer(int timer) { return mTimers[timer]; }
+
+	/** @return die Dauer von updateState() pro MountPoint */
+	public Map<String, Timer> getDeviceTimers() { return Collections.unmodifiableMap(mDevices); }
+
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(512);
+		for (int i=0; i<COUNTERS; i++) sb.append(COUNTER_NAMES[i]).append(": ").append(mCounters[i]).append('\n');
+		for (int i=0; i<TIMERS; i++) sb.append(TIMER_NAMES[i]).append(": ").append(mTimers[i]).append('\n');
+		for (Map.Entry<String, Timer> e : mDevices.entrySet()) 
+			sb.append("updateState ").append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+		return sb.toString();
+	}
+}
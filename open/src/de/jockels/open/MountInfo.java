@@ -0,0 +1,245 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Liest /proc/self/mountinfo als Alternative zu vold.fstab, die es auf neueren
+ * oder exotischen Gerten nicht (mehr) gibt. Eine Zeile sieht so aus:
+ * <pre>
+ * 36 35 179:65 / /storage/sdcard1 rw,nosuid,nodev - vfat /dev/block/vold/179:65 rw,dirsync
+ * </pre>
+ * also Mount-ID, Eltern-ID, major:minor, Root, MountPoint, Mount-Optionen,
+ * optionale Felder bis "-", Dateisystem, Quelle und Superblock-Optionen.
+ * <p>
+ * Die Klasse merkt sich den Inhalt des letzten Durchgangs. Ist die Datei beim
+ * nchsten {@link #parse()} unverndert, passiert gar nichts; sonst werden nur
+ * die Zeilen neu zerlegt, die es vorher nicht gab. Fr unvernderte Zeilen
+ * bleibt das {@link Entry}-Objekt dasselbe, so dass der Aufrufer an der
+ * Identitt erkennt, was er neu aufbauen muss. Nicht thread-safe.
+ *
+ * @since 1.6
+ */
+final class MountInfo {
+	static final String PATH = "/proc/self/mountinfo";
+
+	/**
+	 * Eine Zeile aus mountinfo.
+	 */
+	static final class Entry {
+		final int mountId;
+		final int major, minor;
+		final String mountPoint;
+		final String options;
+		final String fsType;
+		final String source;
+
+		// Lage der Zeile im Puffer des Durchgangs, in dem sie zuletzt gesehen wurde
+		private int mHash, mOff, mLen;
+		private Entry mNext; // Kette in der Hash-Tabelle
+
+		Entry(int mountId, int major, int minor, String mountPoint, String options, String fsType, String source) {
+			this.mountId = mountId;
+			this.major = major;
+			this.minor = minor;
+			this.mountPoint = mountPoint;
+			this.options = options;
+			this.fsType = fsType;
+			this.source = source;
+		}
+
+		/** @return true, falls die Mount-Optionen "ro" enthalten */
+		boolean isReadOnly() {
+			return options.equals("ro") || options.startsWith("ro,");
+		}
+	}
+
+	private final File mFile;
+	// zwei Puffer, abwechselnd benutzt: einer fr den alten, einer fr den neuen Inhalt
+	private byte[] mBuf = new byte[8192], mOld = new byte[8192];
+	private int mLen;
+	private boolean mValid;
+	private ArrayList<Entry> mEntries = new ArrayList<Entry>();
+	private HashMap<Integer, Entry> mByHash = new HashMap<Integer, Entry>();
+	private int mParsed;
+
+
+	MountInfo() { this(new File(PATH)); }
+
+	MountInfo(File f) { mFile = f; }
+
+
+	/**
+	 * Liest die Datei neu ein.
+	 * @return true, wenn sich seit dem letzten Aufruf etwas gendert hat (beim
+	 * 		ersten Aufruf immer, falls lesbar); false, wenn alles gleich ist oder
+	 * 		die Datei nicht gelesen werden konnte
+	 */
+	boolean parse() {
+		byte[] old = mBuf;
+		int oldLen = mLen;
+		mParsed = 0;
+		mBuf = mOld;
+		mOld = old;
+		try {
+			read();
+		} catch (IOException e) {
+			// alten Stand behalten
+			mOld = mBuf;
+			mBuf = old;
+			mLen = oldLen;
+			return false;
+		}
+		if (mValid && oldLen==mLen && same(mBuf, 0, mOld, 0, mLen)) return false;
+
+		ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.size()+4);
+		int start = 0;
+		for (int i=0; i<=mLen; i++) {
+			if (i==mLen || mBuf[i]=='\n') {
+				if (i>start) {
+					Entry e = line(start, i-start);
+					if (e!=null) entries.add(e);
+				}
+				start = i+1;
+			}
+		}
+		// Hash-Tabelle erst jetzt neu verketten, vorher wurde noch in der alten gesucht
+		HashMap<Integer, Entry> byHash = new HashMap<Integer, Entry>(entries.size()*2);
+		for (Entry e : entries) e.mNext = byHash.put(e.mHash, e);
+		mEntries = entries;
+		mByHash = byHash;
+		mValid = true;
+		return true;
+	}
+
+
+	/** @return alle Eintrge des letzten erfolgreichen {@link #parse()}, nie null */
+	ArrayList<Entry> getEntries() { return mEntries; }
+
+	/** @return die Anzahl der Zeilen, die beim letzten {@link #parse()} tatschlich zerlegt wurden */
+	int getParsedCount() { return mParsed; }
+
+
+	private void read() throws IOException {
+		// Dateien in /proc haben keine Gre, also bis EOF lesen
+		FileInputStream in = new FileInputStream(mFile);
+		try {
+			mLen = 0;
+			int n;
+			while ((n = in.read(mBuf, mLen, mBuf.length-mLen)) > 0) {
+				mLen += n;
+				if (mLen==mBuf.length) {
+					byte[] b = new byte[mBuf.length*2];
+					System.arraycopy(mBuf, 0, b, 0, mLen);
+					mBuf = b;
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Sucht die Zeile unter den Eintrgen des letzten Durchgangs, sonst wird sie
+	 * zerlegt.
+	 */
+	private Entry line(int off, int len) {
+		int h = 0;
+		for (int i=off; i<off+len; i++) h = 31*h + mBuf[i];
+		for (Entry e = mByHash.get(h); e!=null; e = e.mNext) {
+			if (e.mLen==len && same(mBuf, off, mOld, e.mOff, len)) {
+				e.mOff = off;
+				return e;
+			}
+		}
+		Entry e = parseLine(off, len);
+		if (e!=null) {
+			e.mHash = h;
+			e.mOff = off;
+			e.mLen = len;
+		}
+		return e;
+	}
+
+
+	private Entry parseLine(int off, int len) {
+		mParsed++;
+		int end = off+len;
+		int[] f = new int[12]; // Anfang und Ende von 6 Feldern
+		int n = 0, i = off;
+		// die ersten sechs Felder: ID, Eltern-ID, major:minor, Root, MountPoint, Optionen
+		while (n<6 && i<end) {
+			while (i<end && mBuf[i]==' ') i++;
+			f[2*n] = i;
+			while (i<end && mBuf[i]!=' ') i++;
+			f[2*n+1] = i;
+			n++;
+		}
+		if (n<6) return null;
+		// optionale Felder bis "-"
+		while (i<end) {
+			while (i<end && mBuf[i]==' ') i++;
+			if (i<end && mBuf[i]=='-' && (i+1==end || mBuf[i+1]==' ')) { i++; break; }
+			while (i<end && mBuf[i]!=' ') i++;
+		}
+		while (i<end && mBuf[i]==' ') i++;
+		int fsOff = i;
+		while (i<end && mBuf[i]!=' ') i++;
+		int fsEnd = i;
+		while (i<end && mBuf[i]==' ') i++;
+		int srcOff = i;
+		while (i<end && mBuf[i]!=' ') i++;
+		if (fsEnd==fsOff) return null;
+
+		int colon = f[4];
+		while (colon<f[5] && mBuf[colon]!=':') colon++;
+		return new Entry(number(f[0], f[1]), number(f[4], colon), number(colon+1, f[5]),
+				unescape(f[8], f[9]), string(f[10], f[11]), string(fsOff, fsEnd), unescape(srcOff, i));
+	}
+
+
+	private int number(int from, int to) {
+		int v = 0;
+		for (int i=from; i<to; i++) {
+			int d = mBuf[i]-'0';
+			if (d<0 || d>9) return -1;
+			v = v*10 + d;
+		}
+		return v;
+	}
+
+
+	@SuppressWarnings("deprecation")
+	private String string(int from, int to) {
+		return new String(mBuf, 0, from, to-from);
+	}
+
+
+	/** Leerzeichen u.. stehen in mountinfo oktal, also z.B. \040 */
+	private String unescape(int from, int to) {
+		int i = from;
+		while (i<to && mBuf[i]!='\\') i++;
+		if (i==to) return string(from, to);
+		StringBuilder sb = new StringBuilder(to-from);
+		for (i=from; i<to; i++) {
+			if (mBuf[i]=='\\' && i+3<to && isOctal(mBuf[i+1]) && isOctal(mBuf[i+2]) && isOctal(mBuf[i+3])) {
+				sb.append((char)((mBuf[i+1]-'0')*64 + (mBuf[i+2]-'0')*8 + (mBuf[i+3]-'0')));
+				i += 3;
+			} else
+				sb.append((char)(mBuf[i] & 0xff));
+		}
+		return sb.toString();
+	}
+
+	private static boolean isOctal(byte b) { return b>='0' && b<='7'; }
+
+
+	private static boolean same(byte[] a, int aOff, byte[] b, int bOff, int len) {
+		for (int i=0; i<len; i++) if (a[aOff+i]!=b[bOff+i]) return false;
+		return true;
+	}
+}
@@ -0,0 +1,28 @@
+package de.jockels.open;
+
+import java.io.File;
+
+/**
+ * Die Zugriffe aufs Dateisystem, mit denen {@link DeviceDiv} den Zustand 
+ * eines MountPoints prft. Austauschbar, damit der Replay in bench/ die 
+ * Erkennung mit aufgezeichneten Gerten auf einer normalen JVM durchspielen
+ * kann, ohne dass es deren Verzeichnisse gibt.
+ *
+ * @since 1.6
+ */
+class MountProbe {
+	private static volatile MountProbe mProbe = new MountProbe();
+
+	static MountProbe get() { return mProbe; }
+
+	/** @param p die neue Probe oder null fr die normale */
+	static void set(MountProbe p) { mProbe = p==null ? new MountProbe() : p; }
+
+
+	/** @return true, falls unter f etwas gemountet und lesbar ist */
+	boolean isReadable(File f) {
+		return f.isDirectory() && f.canRead(); // ohne canRead() klappts z.B. beim Note2 nicht
+	}
+
+	boolean isWriteable(File f) { return f.canWrite(); }
+}
@@ -0,0 +1,113 @@
+package de.jockels.open;
+
+/**
+ * Ordnet Pfade dem Device zu, auf dem sie liegen. Die MountPoints stehen in
+ * einem Baum aus Pfad-Bestandteilen; gesucht wird der lngste passende
+ * MountPoint, so dass bei verschachtelten Mounts wie /mnt/sdcard/external_sd
+ * nicht versehentlich /mnt/sdcard herauskommt. Eine Suche kostet so viele
+ * Schritte, wie der Pfad Bestandteile hat, und erzeugt keine Objekte.
+ * <p>
+ * Die Verfgbarkeit spielt dabei keine Rolle: Ist die Karte unter
+ * /mnt/sdcard/external_sd entnommen, kommt trotzdem ihr Device heraus und
+ * nicht /mnt/sdcard, damit der Aufrufer per {@link Device#isAvailable()}
+ * merkt, dass sein Device fehlt, statt auf das falsche Medium zu schreiben.
+ * <p>
+ * Nach dem Aufbau unvernderlich und damit thread-safe.
+ *
+ * @see Environment2#getDeviceForPath(java.io.File)
+ * @since 1.6
+ */
+final class MountTrie {
+	private static final int MAX_DEPTH = 64;
+
+	private static final class Node {
+		final String name;
+		Node[] children = null;
+		Device device = null;
+
+		Node(String name) { this.name = name; }
+
+		Node child(String path, int start, int len) {
+			if (children!=null) for (Node n : children) 
+				if (n.name.length()==len && path.regionMatches(start, n.name, 0, len)) return n;
+			return null;
+		}
+
+		Node add(String name) {
+			Node n = child(name, 0, name.length());
+			if (n!=null) return n;
+			n = new Node(name);
+			if (children==null) {
+				children = new Node[] { n };
+			} else {
+				Node[] c = new Node[children.length+1];
+				System.arraycopy(children, 0, c, 0, children.length);
+				c[children.length] = n;
+				children = c;
+			}
+			return n;
+		}
+	}
+
+	private final Node mRoot = new Node("");
+
+	MountTrie(Device[] devices) {
+		for (Device d : devices) if (d!=null) add(d);
+	}
+
+
+	private void add(Device d) {
+		String mp = d.getMountPoint();
+		if (mp==null) return;
+		Node n = mRoot;
+		for (String s : mp.split("/")) if (s.length()>0) n = n.add(s);
+		// bei doppelten MountPoints gilt der erste, wie bisher bei der linearen Suche
+		if (n.device==null) n.device = d;
+	}
+
+
+	/**
+	 * @param path ein absoluter Pfad; "." und ".." werden aufgelst, 
+	 * 		symbolische Links nicht
+	 * @return das Device oder null, falls kein MountPoint passt
+	 */
+	Device find(String path) {
+		Node n = mRoot;
+		Device found = n.device;
+		int len = path.length();
+		int i = 0;
+		while (i<len) {
+			int end = path.indexOf('/', i);
+			if (end<0) end = len;
+			int l = end-i;
+			if (l==0 || (l==1 && path.charAt(i)=='.')) {
+				// nichts
+			} else if (l==2 && path.charAt(i)=='.' && path.charAt(i+1)=='.') {
+				// selten, dann eben noch einmal von vorn mit bereinigtem Pfad
+				return find(normalize(path));
+			} else {
+				Node c = n.child(path, i, l);
+				if (c==null) break;
+				n = c;
+				if (n.device!=null) found = n.device;
+			}
+			i = end+1;
+		}
+		return found;
+	}
+
+
+	private static String normalize(String path) {
+		String[] parts = path.split("/");
+		String[] out = new String[Math.min(parts.length, MAX_DEPTH)];
+		int n = 0;
+		for (String s : parts) {
+			if (s.length()==0 || s.equals(".")) continue;
+			if (s.equals("..")) { if (n>0) n--; }
+			else if (n<out.length) out[n++] = s;
+		}
+		StringBuilder sb = new StringBuilder(path.length());
+		for (int i=0; i<n; i++) sb.append('/').append(out[i]);
+		return sb.length()==0 ? "/" : sb.toString();
+	}
+}
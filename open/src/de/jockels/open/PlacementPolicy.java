@@ -0,0 +1,21 @@
+package de.jockels.open;
+
+/**
+ * Entscheidet, auf welchem {@link Device} eine Datei landen soll. Die 
+ * Standard-Strategie bewertet freien Speicher, Entnehmbarkeit und die 
+ * gemessene Geschwindigkeit ({@link Device#getProfile()}); eine eigene kann 
+ * mit {@link Environment2#setPlacementPolicy(PlacementPolicy)} gesetzt werden.
+ * <p>
+ * Wird pro Datei aufgerufen, evtl. aus mehreren Threads gleichzeitig, und 
+ * sollte daher schnell sein und nichts im Dateisystem anfassen.
+ *
+ * @since 1.6
+ */
+public interface PlacementPolicy {
+	/**
+	 * @param r was geschrieben werden soll
+	 * @param candidates alle verfgbaren Devices einschlielich /data; nicht verndern
+	 * @return das gewhlte Device oder null, falls keines passt
+	 */
+	Device choose(WriteRequest r, Device[] candidates);
+}
@@ -0,0 +1,115 @@
+package de.jockels.open;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Fasst die Media-Broadcasts eines Prozesses zusammen. Beim Einstecken einer
+ * Karte kommen gleich mehrere Intents hintereinander, und jeder registrierte
+ * Receiver hat bisher jedes Mal {@link Environment2#updateDevices()} aufgerufen.
+ * Hier startet die erste Anforderung ein Zeitfenster; alles, was innerhalb
+ * davon noch eintrifft, hngt sich an. Nach Ablauf des Fensters luft genau
+ * ein updateDevices() in einem Hintergrund-Thread, danach bekommt jeder
+ * Abonnent seinen Callback genau einmal im UI-Thread.
+ *
+ * @see Environment2#registerRescanBroadcastReceiver(android.content.Context, Runnable)
+ * @since 1.6
+ */
+final class RescanScheduler {
+	private static final String TAG = "RescanScheduler";
+	/** Default fr {@link #setWindow(long)} */
+	static final long DEFAULT_WINDOW = 500;
+
+	private static final Object mLock = new Object();
+	// Abonnent -> was nach dem Refresh aufgerufen werden soll; der letzte Aufruf gewinnt
+	private static LinkedHashMap<Object, Runnable> mPending = new LinkedHashMap<Object, Runnable>();
+	private static boolean mScheduled = false;
+	private static long mWindow = DEFAULT_WINDOW;
+	private static ScheduledExecutorService mExecutor = null;
+	private static Handler mMainHandler = null;
+
+	private RescanScheduler() {}
+
+
+	static void setWindow(long millis) {
+		if (millis<0) throw new IllegalArgumentException("millis darf nicht negativ sein");
+		synchronized (mLock) { mWindow = millis; }
+	}
+
+
+	/**
+	 * Fordert einen Refresh an.
+	 * @param subscriber der Abonnent (blicherweise der Receiver); pro Abonnent
+	 * 		wird nur der letzte callback eines Fensters ausgefhrt
+	 * @param callback wird nach dem Refresh im UI-Thread aufgerufen, kann null sein
+	 */
+	static void request(Object subscriber, Runnable callback) {
+		synchronized (mLock) {
+			if (subscriber!=null) mPending.put(subscriber, callback);
+			if (mScheduled) return;
+			mScheduled = true;
+			executor().schedule(mRefresh, mWindow, TimeUnit.MILLISECONDS);
+		}
+	}
+
+
+	/**
+	 * Vergisst einen noch nicht ausgefhrten callback, z.B. weil der Receiver
+	 * abgemeldet wurde.
+	 */
+	static void cancel(Object subscriber) {
+		synchronized (mLock) { mPending.remove(subscriber); }
+	}
+
+
+	private static final Runnable mRefresh = new Runnable() {
+		public void run() {
+			LinkedHashMap<Object, Runnable> pending;
+			synchronized (mLock) {
+				// was ab jetzt kommt, braucht einen neuen Refresh
+				mScheduled = false;
+				pending = mPending;
+				mPending = new LinkedHashMap<Object, Runnable>();
+			}
+			try {
+				Environment2.updateDevices();
+			} catch (RuntimeException e) {
+				Log.e(TAG, "updateDevices fehlgeschlagen", e);
+			}
+			final ArrayList<Runnable> callbacks = new ArrayList<Runnable>(pending.size());
+			for (Runnable r : pending.values()) if (r!=null) callbacks.add(r);
+			if (callbacks.isEmpty()) return;
+			mainHandler().post(new Runnable() {
+				public void run() {
+					for (Runnable r : callbacks) r.run();
+				}
+			});
+		}
+	};
+
+
+	private static ScheduledExecutorService executor() {
+		if (mExecutor==null) mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Environment2-Rescan");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return mExecutor;
+	}
+
+
+	private static synchronized Handler mainHandler() {
+		if (mMainHandler==null) mMainHandler = new Handler(Looper.getMainLooper());
+		return mMainHandler;
+	}
+}
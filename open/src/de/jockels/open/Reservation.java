@@ -0,0 +1,86 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ein mit {@link Device#reserve(long)} vorgemerkter Speicherplatz. Solange 
+ * die Reservierung besteht, zieht das Device sie von 
+ * {@link Device#getFreeUnreserved()} ab, so dass mehrere Schreiber, die 
+ * gleichzeitig prfen, ob genug Platz ist, nicht zusammen mehr belegen als 
+ * vorhanden. Gezhlt wird pro MountPoint, eine Reservierung gilt also auch
+ * fr die Device-Objekte, die ein spterer Rescan erzeugt.
+ * <p>
+ * Jede Reservierung muss genau einmal mit {@link #commit()} (Datei ist 
+ * geschrieben) oder {@link #release()} (abgebrochen) beendet werden, am 
+ * besten im finally-Block; weitere Aufrufe werden ignoriert.
+ *
+ * @since 1.6
+ */
+public final class Reservation {
+	private final Device mDevice;
+	private final AtomicLong mLedger;
+	private final long mBytes;
+	private final AtomicBoolean mDone = new AtomicBoolean(false);
+
+	Reservation(Device device, AtomicLong ledger, long bytes) {
+		mDevice = device;
+		mLedger = ledger;
+		mBytes = bytes;
+	}
+
+	public Device getDevice() { return mDevice; }
+	public long getBytes() { return mBytes; }
+
+	/** @return true, solange weder commit() noch release() aufgerufen wurde */
+	public boolean isActive() { return !mDone.get(); }
+
+
+	/**
+	 * Belegt den Platz schon vorab in der Datei, indem sie auf die reservierte 
+	 * Gre gesetzt wird. Auf FAT-Karten werden dabei wirklich Cluster belegt,
+	 * auf ext4 entsteht dagegen nur eine Datei mit Loch; dort schtzt also 
+	 * nur die Reservierung selbst.
+	 * <p>
+	 * Achtung: Auf FAT fehlen die vorab belegten Bytes danach schon im freien
+	 * Speicher, die Reservierung zieht sie aber bis zum {@link #commit()} 
+	 * weiterhin ab; bis dahin ist der Platz also doppelt gezhlt und 
+	 * {@link Device#getFreeUnreserved()} zu klein. Weil sich von hier aus
+	 * nicht feststellen lsst, ob das Dateisystem wirklich belegt hat, bleibt
+	 * die Reservierung sicherheitshalber in voller Hhe bestehen.
+	 * @param f die Datei, in die geschrieben werden soll
+	 * @throws IOException wenn es nicht geklappt hat, z.B. weil der Platz 
+	 * 		doch nicht reicht
+	 */
+	public void preallocate(File f) throws IOException {
+		if (!isActive()) throw new IllegalStateException("Reservierung schon beendet");
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			if (raf.length()<mBytes) raf.setLength(mBytes);
+		} finally {
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * Beendet die Reservierung, nachdem die Daten geschrieben sind. Der freie
+	 * Speicher des Devices wird beim nchsten Abfragen neu gelesen, damit er
+	 * die geschriebenen Daten enthlt.
+	 */
+	public void commit() {
+		if (mDone.compareAndSet(false, true)) {
+			SpaceCache.expire(mDevice.getMountPoint());
+			mLedger.addAndGet(-mBytes);
+		}
+	}
+
+
+	/** Gibt den Platz wieder frei, ohne etwas geschrieben zu haben. */
+	public void release() {
+		if (mDone.compareAndSet(false, true)) mLedger.addAndGet(-mBytes);
+	}
+}
@@ -2,71 +2,175 @@ package de.jockels.open;
 
 import java.io.File;
 
-import android.annotation.SuppressLint;
-import android.os.Build;
 import android.os.StatFs;
-import android.util.Pair;
 
 /**
- * Miniklasse zum Ermitteln einer Partitions-Gre, die auch mit alten Android-Versionen 
- * zusammen klappt und ab Gingerbread die File-Methoden benutzt. Sie nutzt ein {@link Pair} zum 
- * Speichern der Informationen, wobei gilt:
+ * Miniklasse zum Ermitteln einer Partitions-Gre, die auch mit alten Android-Versionen
+ * zusammen klappt. Bis Version 1.5 war das ein {@link android.util.Pair}, was bei jedem
+ * Aufruf zwei Long-Objekte erzeugt hat; jetzt stehen die Werte als long in
+ * unvernderlichen Feldern:
  * <ul>
- * <li>first: freier Speicher (free), ermittelt per getUsableSpace
- * <li>secondary: Gesamtspeicher (size), ermittelt per getTotalSpace
+ * <li>{@link #getFree()}: freier Speicher (free), entspricht getUsableSpace
+ * <li>{@link #getTotal()}: Gesamtspeicher (size), entspricht getTotalSpace
+ * <li>{@link #getBlockSize()}: Blockgre des Dateisystems
  * </ul>
+ * Damit alter Code wie {@code d.getSize().first} weiter bersetzt, gibt es die Felder
+ * first und second noch, jetzt als long.
+ * <p>
  * Der Constructor der Klasse ist privat, erzeugt wird ein Objekt ber die statische
- * Funktion getSpace(File).
- * 
+ * Funktion getSpace(File). Wer oft abfragt und dabei gar nichts erzeugen will,
+ * nimmt {@link #getSpace(File, Holder)} mit einem eigenen {@link Holder}.
+ *
  * @see Environment2
  * @author	Jrg Wirtgen (jow@ct.de)
  * @version	1.0 (3. Okt 12)
+ * @version 1.1 - long-Felder statt Pair&lt;Long,Long&gt;, Blockgre, Holder
  */
-public class Size extends Pair<Long,Long> {
-	
-	private Size(long free, long size) { super(free, size); }
+public final class Size {
+	/**
+	 * freier Speicher in Bytes
+	 * @deprecated nur noch zur Kompatibilitt mit der Pair-Version, besser {@link #getFree()}
+	 */
+	@Deprecated public final long first;
+
+	/**
+	 * Gesamtgre in Bytes
+	 * @deprecated nur noch zur Kompatibilitt mit der Pair-Version, besser {@link #getTotal()}
+	 */
+	@Deprecated public final long second;
+
+	private final long mBlockSize;
+
+	static final Size EMPTY = new Size(0, 0, 0);
+
+
+	private Size(long free, long size, long blockSize) {
+		first = free;
+		second = size;
+		mBlockSize = blockSize;
+	}
+
+	/** @return der freie Speicher in Bytes */
+	public long getFree() { return first; }
+
+	/** @return die Gre der Partition in Bytes */
+	public long getTotal() { return second; }
+
+	/** @return die Blockgre des Dateisystems in Bytes, 0 falls unbekannt */
+	public long getBlockSize() { return mBlockSize; }
+
+	/** @return eine Kopie mit anderem freien Speicher, fr {@link SpaceCache} */
+	Size withFree(long free) { return new Size(free, second, mBlockSize); }
+
 
 	/**
 	 * Versucht zu erraten, wie gro das Speichermedium ist, auf dem das Size-Objekt
-	 * liegt. Liefert nur einen sinnvollen Wert, wenn auf dem Speichermedium auer 
+	 * liegt. Liefert nur einen sinnvollen Wert, wenn auf dem Speichermedium auer
 	 * dem Size-Objekt entweder keine oder nur kleine andere Partitionen liegen.
-	 * 
+	 *
 	 * @return die nchsthhere Zweierpotenz ber der ermittelten Gre (secondary),
 	 * 		also bsp. 16 GB fr 14 GB. Falls second 0 ist, kommt 1 zurck.
 	 */
 	public long guessSize() {
-		if (second==0) return 0;
+		return guessSize(second);
+	}
+
+
+	static long guessSize(long size) {
+		if (size==0) return 0;
 		long g;
-		if (second>1024*1024*1024) g = 1024*1024*1024;
-		else if (second>1024*1024) g = 1024*1024;
+		if (size>1024*1024*1024) g = 1024*1024*1024;
+		else if (size>1024*1024) g = 1024*1024;
 		else g = 1;
-		while (second>g) g *= 2;
+		while (size>g) g *= 2;
 		return g;
 	}
 
-	
+
+	@Override
+	public boolean equals(Object o) {
+		if (o==this) return true;
+		if (!(o instanceof Size)) return false;
+		Size s = (Size)o;
+		return first==s.first && second==s.second && mBlockSize==s.mBlockSize;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(first ^ (first>>>32)) * 31 + (int)(second ^ (second>>>32));
+	}
+
+	@Override
+	public String toString() {
+		return "Size[" + first + "/" + second + "]";
+	}
+
+
 	/**
-	 * Ermittelt die Gre und den freien Speicher des bergebenen {@link File}. Ab 
-	 * Android 2.3 werden dazu die File-Methoden {@link File#getUsableSpace()} und 
-	 * {@link File#getTotalSpace()} benutzt, bei lteren Android-Versionen wird ein
-	 * Hilfsobjekt {@link StatFs} erzeugt.
-	 * 
+	 * Ermittelt die Gre und den freien Speicher des bergebenen {@link File}. Dazu
+	 * wird ein {@link StatFs} benutzt, was anders als die Gingerbread-Methoden
+	 * {@link File#getUsableSpace()} und {@link File#getTotalSpace()} nur einen
+	 * statfs-Aufruf fr alle Werte braucht.
+	 *
 	 * @param f das Verzeichnis, dessen Gre ermittelt werden soll
-	 * @return ein {@link Pair}, das Gre und freier Speicher der Partition enthlt, 
+	 * @return ein Size-Objekt, das Gre und freier Speicher der Partition enthlt,
 	 * 		auf die f zeigt oder (0,0), falls dabei ein Fehler aufgetreten ist oder f null ist.
 	 */
-	@SuppressLint("NewApi")
 	public static Size getSpace(File f) {
+		Holder h = new Holder();
+		return getSpace(f, h) ? h.toSize() : EMPTY;
+	}
+
+
+	/**
+	 * Wie {@link #getSpace(File)}, schreibt aber in einen {@link Holder} des Aufrufers
+	 * statt ein neues Objekt zu erzeugen. Das StatFs-Objekt im Holder wird dabei
+	 * wiederverwendet, so dass ab dem zweiten Aufruf nichts mehr erzeugt wird.
+	 *
+	 * @param f das Verzeichnis, dessen Gre ermittelt werden soll
+	 * @param h der Holder, in den die Werte geschrieben werden; bei einem Fehler
+	 * 		oder f==null alle 0
+	 * @return true, wenn es geklappt hat
+	 * @since 1.6
+	 */
+	public static boolean getSpace(File f, Holder h) {
 		if (f!=null) try {
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
-				// Gingerbread hat Gre/freier Platz im File
-				return new Size(f.getUsableSpace(), f.getTotalSpace());
-			} else {
-				// vor Gingerbread muss der StatFs-Krams ran; wichtig ist die long-Wandlung
-				StatFs fs = new StatFs(f.getAbsolutePath());
-				return new Size((long)fs.getAvailableBlocks()*fs.getBlockSize(), (long)fs.getBlockCount()*fs.getBlockSize());
-			}
+			h.fill(f.getAbsolutePath());
+			return true;
 		} catch (Exception e) { }
-		return new Size((long)0, (long)0);
+		h.mFree = h.mTotal = h.mBlockSize = 0;
+		return false;
+	}
+
+
+	/**
+	 * Vernderbares Gegenstck zu {@link Size} fr {@link Size#getSpace(File, Holder)},
+	 * gedacht fr Aufrufer, die regelmig abfragen und dabei keine Objekte erzeugen
+	 * wollen. Nicht thread-safe.
+	 * @since 1.6
+	 */
+	public static final class Holder {
+		private long mFree, mTotal, mBlockSize;
+		private StatFs mFs;
+
+		public long getFree() { return mFree; }
+		public long getTotal() { return mTotal; }
+		public long getBlockSize() { return mBlockSize; }
+
+		/** @return true, wenn die Werte denen von s entsprechen */
+		public boolean sameAs(Size s) {
+			return s!=null && s.first==mFree && s.second==mTotal && s.mBlockSize==mBlockSize;
+		}
+
+		/** @return ein unvernderliches Size-Objekt mit den aktuellen Werten */
+		public Size toSize() { return new Size(mFree, mTotal, mBlockSize); }
+
+		private void fill(String path) {
+			if (mFs==null) mFs = new StatFs(path); else mFs.restat(path);
+			// wichtig ist die long-Wandlung
+			mBlockSize = mFs.getBlockSize();
+			mFree = (long)mFs.getAvailableBlocks()*mBlockSize;
+			mTotal = (long)mFs.getBlockCount()*mBlockSize;
+		}
 	}
-}
\ No newline at end of file
+}
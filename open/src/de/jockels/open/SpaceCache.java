@@ -0,0 +1,132 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.util.HashMap;
+
+import android.os.SystemClock;
+
+/**
+ * Cache vor {@link Size#getSpace(File)}, ein Eintrag pro MountPoint. Der freie
+ * Speicher wird hchstens alle {@link #setMaxAge(long)} Millisekunden neu
+ * ermittelt, die Gesamtgre nur einmal pro Mount, also bis zum nchsten
+ * {@link #refresh(String)} (den {@link Device#updateState()} bei jedem
+ * Media-Broadcast aufruft). Solange sich der freie Speicher nicht ndert,
+ * bleibt auch das gelieferte {@link Size}-Objekt dasselbe.
+ * <p>
+ * Ein statfs-Aufruf liefert zwar immer alle Werte, doch die Gesamtgre wird
+ * trotzdem nicht bernommen: Sie kann sich bei gemountetem Medium nicht ndern,
+ * und so bleiben equals-Vergleiche wie der in {@link DeviceDiv} stabil.
+ *
+ * @since 1.6
+ */
+final class SpaceCache {
+	/** Default fr {@link #setMaxAge(long)} */
+	static final long DEFAULT_MAX_AGE = 2000;
+
+	private static final class Entry {
+		final File file;
+		final Size.Holder holder = new Size.Holder();
+		Size size;
+		long time;
+		boolean haveTotal;
+
+		Entry(String mountPoint) { file = new File(mountPoint); }
+	}
+
+	private static final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+	private static volatile long mMaxAge = DEFAULT_MAX_AGE;
+
+	private SpaceCache() {}
+
+
+	/**
+	 * @param millis wie alt der freie Speicher hchstens sein darf; 0 heit,
+	 * 		dass jedes Mal neu gelesen wird
+	 */
+	static void setMaxAge(long millis) {
+		if (millis<0) throw new IllegalArgumentException("millis darf nicht negativ sein");
+		mMaxAge = millis;
+	}
+
+	static long getMaxAge() { return mMaxAge; }
+
+
+	/**
+	 * Liefert die Gre aus dem Cache oder, falls zu alt, neu gelesen.
+	 * @param mountPoint der MountPoint des Devices
+	 * @param fresh true erzwingt ein neues Lesen des freien Speichers
+	 * @return nie null; bei Fehlern (0,0)
+	 */
+	static Size get(String mountPoint, boolean fresh) {
+		Entry e = entry(mountPoint);
+		synchronized (e) {
+			long now = SystemClock.elapsedRealtime();
+			if (fresh || e.size==null || now-e.time>=mMaxAge) read(e, now);
+			return e.size;
+		}
+	}
+
+
+	/**
+	 * Vergisst alles ber den MountPoint (auch die Gesamtgre) und liest neu;
+	 * fr nderungen des Mount-Zustands.
+	 * @return die neu gelesene Gre, nie null
+	 */
+	static Size refresh(String mountPoint) {
+		Entry e = entry(mountPoint);
+		synchronized (e) {
+			e.haveTotal = false;
+			e.size = null;
+			read(e, SystemClock.elapsedRealtime());
+			return e.size;
+		}
+	}
+
+
+	/**
+	 * Sorgt dafr, dass der nchste {@link #get(String, boolean)} den freien
+	 * Speicher neu liest, ohne selbst zu lesen; fr {@link Reservation#commit()}.
+	 */
+	static void expire(String mountPoint) {
+		Entry e = entry(mountPoint);
+		synchronized (e) { e.time = Long.MIN_VALUE/2; }
+	}
+
+
+	/** vergisst einen MountPoint, den ein Rescan nicht mehr gefunden hat */
+	static void forget(String mountPoint) {
+		synchronized (mEntries) { mEntries.remove(mountPoint); }
+	}
+
+
+	private static Entry entry(String mountPoint) {
+		synchronized (mEntries) {
+			Entry e = mEntries.get(mountPoint);
+			if (e==null) {
+				e = new Entry(mountPoint);
+				mEntries.put(mountPoint, e);
+			}
+			return e;
+		}
+	}
+
+
+	private static void read(Entry e, long now) {
+		Size.Holder h = e.holder;
+		Metrics.count(MetricsSnapshot.COUNTER_STATFS);
+		long t = Metrics.start();
+		boolean ok = Size.getSpace(e.file, h);
+		Metrics.stop(MetricsSnapshot.TIMER_STATFS, t);
+		if (!ok) {
+			// Fehler, z.B. gerade entfernt: beim nchsten Mal alles neu
+			e.haveTotal = false;
+			e.size = Size.EMPTY;
+		} else if (!e.haveTotal || e.size==null) {
+			e.haveTotal = true;
+			e.size = h.toSize();
+		} else if (e.size.getFree()!=h.getFree()) {
+			e.size = e.size.withFree(h.getFree());
+		}
+		e.time = now;
+	}
+}
@@ -0,0 +1,39 @@
+package de.jockels.open;
+
+/**
+ * Ergebnis einer Geschwindigkeitsmessung von {@link Device#measureProfile(android.content.Context, boolean)}.
+ * Die Werte sind Richtwerte aus einem kurzen Test mit wenigen MB, reichen aber,
+ * um eine langsame SD-Karte von einer schnellen zu unterscheiden. Beim Lesen
+ * kann der Page-Cache mitspielen, der Lesewert ist daher eher zu hoch. Ein
+ * Wert von 0 heit, dass die Zeit fr diesen Teil der Messung nicht mehr
+ * gereicht hat.
+ *
+ * @since 1.6
+ */
+public final class StorageProfile {
+	private final long mSeqWrite, mSeqRead, mSync, mTime;
+
+	StorageProfile(long seqWrite, long seqRead, long sync, long time) {
+		mSeqWrite = seqWrite;
+		mSeqRead = seqRead;
+		mSync = sync;
+		mTime = time;
+	}
+
+	/** @return sequentielles Schreiben in Bytes pro Sekunde */
+	public long getSequentialWrite() { return mSeqWrite; }
+
+	/** @return sequentielles Lesen in Bytes pro Sekunde */
+	public long getSequentialRead() { return mSeqRead; }
+
+	/** @return mittlere Dauer von 4K schreiben plus fsync in Mikrosekunden */
+	public long getSyncLatency() { return mSync; }
+
+	/** @return Zeitpunkt der Messung wie {@link System#currentTimeMillis()} */
+	public long getTime() { return mTime; }
+
+	@Override
+	public String toString() {
+		return "StorageProfile[w=" + mSeqWrite/1024 + "K/s, r=" + mSeqRead/1024 + "K/s, sync=" + mSync + "us]";
+	}
+}
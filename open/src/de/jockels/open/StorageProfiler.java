@@ -0,0 +1,215 @@
+package de.jockels.open;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Misst, wie schnell ein {@link Device} ist: sequentiell schreiben und lesen,
+ * 4K schreiben mit fsync. Der Test luft mit einer Temp-Datei im 
+ * Cache-Verzeichnis der App auf dem Device und ist nach Gre und Zeit 
+ * begrenzt (hchstens {@link #FILE_SIZE} Bytes, etwa {@link #BUDGET} 
+ * Millisekunden fr alle Teile zusammen; was nach Ablauf nicht mehr drankommt,
+ * bleibt 0).
+ * <p>
+ * Zufllige 4K-Lesezugriffe werden nicht gemessen: Ohne O_DIRECT oder 
+ * Root-Rechte zum Leeren des Page-Caches trfen sie nur die gerade 
+ * geschriebene Datei im RAM und lieferten fr jedes Device denselben Wert.
+ * <p>
+ * Die Ergebnisse gehren zum Datentrger, nicht zum MountPoint: Sie werden im
+ * Speicher pro Datentrger (MountPoint, Gre, Block-Device) aufgehoben und
+ * zustzlich als kleine Datei ({@link #FILE_NAME}) im Cache-Verzeichnis auf dem
+ * Datentrger selbst, so dass eine andere Karte im selben Slot neu gemessen
+ * und eine bekannte nach einem Neustart der App nicht erneut gemessen wird.
+ *
+ * @since 1.6
+ */
+final class StorageProfiler {
+	private static final String TAG = "StorageProfiler";
+	static final String FILE_NAME = "environment2.profile";
+	static final int FILE_SIZE = 4*1024*1024;
+	static final long BUDGET = 3000;
+	private static final int CHUNK = 64*1024;
+	private static final int PAGE = 4096;
+	private static final int SYNCS = 8;
+	private static final int MAGIC = 0x45325032; // "E2P2", ohne Random-Read
+
+	private static final Object mMeasureLock = new Object();
+	private static final HashMap<String, StorageProfile> mProfiles = new HashMap<String, StorageProfile>();
+	/** zhlt jede nderung an mProfiles, damit die Kopien in den Devices veralten */
+	private static final AtomicInteger mGeneration = new AtomicInteger(0);
+
+	/** das zuletzt fr ein Device nachgeschlagene Profil, siehe {@link #cached(Device)} */
+	static final class Cached {
+		final int generation;
+		final long total;
+		final StorageProfile profile;
+
+		Cached(int generation, long total, StorageProfile profile) {
+			this.generation = generation;
+			this.total = total;
+			this.profile = profile;
+		}
+	}
+
+	private StorageProfiler() {}
+
+
+	/** 
+	 * @return das schon bekannte Profil oder null, ohne etwas zu messen oder 
+	 * 		zu lesen; solange sich weder die Profile noch der Datentrger 
+	 * 		ndern, aus der Kopie im Device ohne Lock
+	 */
+	static StorageProfile cached(Device d) {
+		Size s = d.getSize();
+		if (s==null || !d.isAvailable()) return null;
+		int g = mGeneration.get();
+		Cached c = d.mProfile;
+		if (c!=null && c.generation==g && c.total==s.getTotal()) return c.profile;
+		StorageProfile p;
+		synchronized (mProfiles) { p = mProfiles.get(identity(d, s)); }
+		d.mProfile = new Cached(g, s.getTotal(), p);
+		return p;
+	}
+
+
+	/**
+	 * Liefert das Profil, notfalls gemessen. Blockiert fr die Dauer der Messung.
+	 * @param force true misst auf jeden Fall neu
+	 * @return das Profil oder null, falls das Device nicht beschreibbar ist
+	 */
+	static StorageProfile profile(Context ctx, Device d, boolean force) {
+		Size s = d.getSize();
+		if (s==null || !d.isAvailable() || !d.isWriteable()) return null;
+		String id = identity(d, s);
+		// immer nur eine Messung gleichzeitig, sonst messen sie sich gegenseitig
+		synchronized (mMeasureLock) {
+			StorageProfile p;
+			if (!force) {
+				synchronized (mProfiles) { p = mProfiles.get(id); }
+				if (p!=null) return p;
+			}
+			File dir = d.getCacheDir(ctx);
+			if (dir==null) return null;
+			File stored = new File(dir, FILE_NAME);
+			long total = d.getSize().getTotal();
+			p = force ? null : load(stored, total);
+			if (p==null) try {
+				p = measure(dir);
+				store(stored, total, p);
+			} catch (IOException e) {
+				Log.w(TAG, "Messung fehlgeschlagen: "+d.getMountPoint(), e);
+				return null;
+			}
+			synchronized (mProfiles) { mProfiles.put(id, p); }
+			mGeneration.incrementAndGet();
+			return p;
+		}
+	}
+
+
+	private static String identity(Device d, Size s) {
+		StringBuilder sb = new StringBuilder(d.getMountPoint()).append('|').append(s.getTotal());
+		if (d instanceof DeviceDiv) {
+			DeviceDiv dd = (DeviceDiv)d;
+			sb.append('|').append(dd.getMajor()).append(':').append(dd.getMinor());
+		}
+		return sb.toString();
+	}
+
+
+	static StorageProfile measure(File dir) throws IOException {
+		File f = File.createTempFile("e2prof", ".tmp", dir);
+		long deadline = System.nanoTime() + BUDGET*1000000L;
+		byte[] buf = new byte[CHUNK];
+		new Random().nextBytes(buf);
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			// sequentiell schreiben, mit fsync am Ende, damit es auch auf der Karte ist
+			long t = System.nanoTime();
+			int written = 0;
+			while (written<FILE_SIZE && System.nanoTime()<deadline) {
+				raf.write(buf);
+				written += CHUNK;
+			}
+			raf.getFD().sync();
+			long seqWrite = rate(written, System.nanoTime()-t);
+
+			// sequentiell lesen; kommt zumindest teilweise aus dem Page-Cache
+			raf.seek(0);
+			t = System.nanoTime();
+			int read = 0;
+			while (read<written && System.nanoTime()<deadline) {
+				int n = raf.read(buf);
+				if (n<0) break;
+				read += n;
+			}
+			long seqRead = rate(read, System.nanoTime()-t);
+
+			// 4K schreiben plus fsync
+			t = System.nanoTime();
+			int count = 0;
+			while (count<SYNCS && System.nanoTime()<deadline) {
+				raf.seek((long)count*PAGE);
+				raf.write(buf, 0, PAGE);
+				raf.getFD().sync();
+				count++;
+			}
+			long sync = count==0 ? 0 : (System.nanoTime()-t)/1000/count;
+
+			return new StorageProfile(seqWrite, seqRead, sync, System.currentTimeMillis());
+		} finally {
+			raf.close();
+			f.delete();
+		}
+	}
+
+
+	private static long rate(long bytes, long nanos) {
+		return nanos<=0 || bytes==0 ? 0 : bytes*1000000000L/nanos;
+	}
+
+
+	private static StorageProfile load(File f, long total) {
+		if (!f.isFile()) return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(f));
+			// bei anderer Gre ist es offenbar ein anderer Datentrger mit denselben Pfaden
+			if (in.readInt()!=MAGIC || in.readLong()!=total) return null;
+			return new StorageProfile(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in!=null) try { in.close(); } catch (IOException e) { }
+		}
+	}
+
+
+	private static void store(File f, long total, StorageProfile p) {
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(f));
+			out.writeInt(MAGIC);
+			out.writeLong(total);
+			out.writeLong(p.getSequentialWrite());
+			out.writeLong(p.getSequentialRead());
+			out.writeLong(p.getSyncLatency());
+			out.writeLong(p.getTime());
+		} catch (IOException e) {
+			Log.w(TAG, "konnte "+f+" nicht schreiben", e);
+		} finally {
+			if (out!=null) try { out.close(); } catch (IOException e) { }
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Ein Dateispeicher ber zwei Ebenen: Neue und hufig gelesene Eintrge liegen
+ * im schnellen internen Speicher (/data), selten benutzte werden im 
+ * Hintergrund auf die groe SD-Karte verschoben (Zweit-SD, sonst die primre, 
+ * falls sie nicht mit /data zusammenfllt) und bei erneutem Lesen wieder 
+ * zurckgeholt. Wie oft ein Eintrag gelesen wird, schtzt ein 
+ * {@link FrequencySketch}.
+ * <p>
+ * Welcher Eintrag wo liegt, steht in einer HashMap, ein {@link #get(String)}
+ * kostet also unabhngig von der Ebene einen Zugriff darauf. Die Map wird 
+ * beim ffnen aus den Verzeichnissen beider Ebenen aufgebaut. Die Schlssel 
+ * sind zugleich die Dateinamen.
+ * <p>
+ * Eine von {@link #get(String)} gelieferte Datei sollte gleich geffnet
+ * werden; ein geffneter Stream bleibt auch gltig, wenn die Datei danach
+ * verschoben wird. get() fasst das Dateisystem nicht an; ist die Karte mit
+ * einem Eintrag nicht gesteckt, scheitert erst das ffnen mit einer 
+ * {@link java.io.FileNotFoundException}. Thread-safe.
+ *
+ * @see Environment2#openTieredStore(Context, String)
+ * @since 1.6
+ */
+public final class TieredStore {
+	private static final String TAG = "TieredStore";
+	private static final String DIR = "tiered/";
+	/** ab so vielen (geschtzten) Zugriffen wird ein Eintrag zurckgeholt */
+	static final int PROMOTE = 3;
+	/** Default fr {@link #setHotQuota(long)}: 64 MB */
+	static final long DEFAULT_HOT_QUOTA = 64*1024*1024;
+	/** so viel wird beim Auslagern unter die Quota gegangen, in Prozent */
+	private static final int LOW_WATER = 80;
+
+	private static final HashMap<String, TieredStore> mStores = new HashMap<String, TieredStore>();
+	private static ExecutorService mExecutor = null;
+
+	private static final class Entry {
+		File dir;
+		long size;
+		boolean hot;
+		boolean moving;
+		/** seit dem letzten Auslagern geschrieben, wird also zuletzt ausgelagert */
+		boolean fresh;
+
+		Entry(File dir, long size, boolean hot) {
+			this.dir = dir;
+			this.size = size;
+			this.hot = hot;
+		}
+	}
+
+	private final Context mContext;
+	private final String mName;
+	private final File mHotDir;
+	private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+	private final FrequencySketch mSketch = new FrequencySketch(1024);
+	private long mHotBytes = 0;
+	private long mHotQuota = DEFAULT_HOT_QUOTA;
+	private boolean mDemoteScheduled = false;
+
+
+	private TieredStore(Context ctx, String name, DeviceRegistry r) {
+		mContext = ctx.getApplicationContext();
+		mName = name;
+		mHotDir = Environment2.getInternalStorage().getFilesDir(mContext, DIR+name);
+		scan(mHotDir, true);
+		scan(coldDir(r.primary), false);
+		if (r.secondary!=null) scan(coldDir(r.secondary), false);
+	}
+
+
+	/** @see Environment2#openTieredStore(Context, String) */
+	static TieredStore open(Context ctx, String name) {
+		if (name==null || name.length()==0 || name.indexOf('/')>=0) throw new IllegalArgumentException("ungltiger Name "+name);
+		// evtl. Warten auf den ersten Scan nicht unter dem Lock
+		DeviceRegistry r = Environment2.registry();
+		synchronized (mStores) {
+			TieredStore s = mStores.get(name);
+			if (s==null) {
+				s = new TieredStore(ctx, name, r);
+				mStores.put(name, s);
+			}
+			return s;
+		}
+	}
+
+
+	/** @param bytes so viel darf im internen Speicher liegen, Default 64 MB */
+	public synchronized void setHotQuota(long bytes) {
+		if (bytes<0) throw new IllegalArgumentException("bytes darf nicht negativ sein");
+		mHotQuota = bytes;
+		checkDemote();
+	}
+
+	/** @return die Summe der Eintrge im internen Speicher */
+	public synchronized long getHotBytes() { return mHotBytes; }
+
+	/** @return die Anzahl der Eintrge auf beiden Ebenen */
+	public synchronized int size() { return mEntries.size(); }
+
+	/** @return true, wenn der Eintrag im internen Speicher liegt */
+	public synchronized boolean isHot(String key) {
+		Entry e = mEntries.get(key);
+		return e!=null && e.hot;
+	}
+
+
+	/**
+	 * Liefert einen Eintrag und zhlt den Zugriff. Ein Eintrag auf der Karte,
+	 * der oft genug gelesen wird, wird im Hintergrund zurckgeholt. Es wird
+	 * nur im Index nachgesehen, ohne Zugriff auf das Dateisystem.
+	 * @return die Datei oder null, falls es den Eintrag nicht gibt; liegt sie
+	 * 		auf einer gerade nicht gesteckten Karte, scheitert das ffnen
+	 */
+	public File get(String key) {
+		synchronized (this) {
+			Entry e = mEntries.get(key);
+			if (e==null) return null;
+			mSketch.increment(key);
+			if (!e.hot && !e.moving && mSketch.frequency(key)>=PROMOTE && mHotBytes+e.size<=mHotQuota) {
+				e.moving = true;
+				schedule(key, true);
+			}
+			return new File(e.dir, key);
+		}
+	}
+
+
+	/**
+	 * @return die Datei, unter der ein neuer Eintrag im internen Speicher 
+	 * 		geschrieben werden soll; kommt erst mit {@link #commit(String)} 
+	 * 		in den Index
+	 */
+	public File create(String key) {
+		checkKey(key);
+		return new File(mHotDir, key);
+	}
+
+
+	/** nimmt einen mit {@link #create(String)} geschriebenen Eintrag auf */
+	public synchronized void commit(String key) {
+		checkKey(key);
+		long size = new File(mHotDir, key).length();
+		Entry e = mEntries.get(key);
+		if (e!=null) {
+			if (e.hot) mHotBytes -= e.size;
+			else new File(e.dir, key).delete();
+		}
+		Entry n = new Entry(mHotDir, size, true);
+		n.fresh = true;
+		mEntries.put(key, n);
+		mHotBytes += size;
+		mSketch.increment(key);
+		checkDemote();
+	}
+
+
+	/** lscht einen Eintrag */
+	public synchronized void remove(String key) {
+		Entry e = mEntries.remove(key);
+		if (e==null) return;
+		if (e.hot) mHotBytes -= e.size;
+		new File(e.dir, key).delete();
+	}
+
+
+	private void checkDemote() {
+		if (mDemoteScheduled || mHotBytes<=mHotQuota) return;
+		mDemoteScheduled = true;
+		executor().execute(new Runnable() {
+			public void run() { demote(); }
+		});
+	}
+
+
+	/**
+	 * lagert die am seltensten benutzten Eintrge aus, bis die Quota eingehalten ist.
+	 * Was seit dem letzten Durchlauf geschrieben wurde, hat im Sketch erst einen
+	 * Zugriff und kme sonst als Erstes dran; solche Eintrge gehen nur, wenn
+	 * die lteren nicht reichen.
+	 */
+	private void demote() {
+		String[] victims;
+		int n;
+		// vor dem Lock, das kann beim ersten Scan warten
+		File cold = coldDir(null);
+		synchronized (this) {
+			mDemoteScheduled = false;
+			if (cold==null) return; // keine Karte da
+			ArrayList<String> hot = new ArrayList<String>();
+			for (Map.Entry<String, Entry> e : mEntries.entrySet()) 
+				if (e.getValue().hot && !e.getValue().moving) hot.add(e.getKey());
+			victims = hot.toArray(new String[hot.size()]);
+			// Hufigkeiten einmal bestimmen, nicht bei jedem Vergleich
+			final HashMap<String, Integer> freq = new HashMap<String, Integer>(victims.length*2);
+			for (String k : victims) freq.put(k, mEntries.get(k).fresh ? Integer.MAX_VALUE : mSketch.frequency(k));
+			Arrays.sort(victims, new Comparator<String>() {
+				public int compare(String a, String b) { return freq.get(a).compareTo(freq.get(b)); }
+			});
+			long target = mHotQuota/100*LOW_WATER;
+			long bytes = mHotBytes;
+			n = 0;
+			while (n<victims.length && bytes>target) {
+				Entry e = mEntries.get(victims[n]);
+				e.moving = true;
+				bytes -= e.size;
+				n++;
+			}
+			for (String k : victims) mEntries.get(k).fresh = false;
+		}
+		for (int i=0; i<n; i++) move(victims[i], cold, false);
+	}
+
+
+	private void schedule(final String key, final boolean promote) {
+		executor().execute(new Runnable() {
+			public void run() { move(key, promote ? mHotDir : coldDir(null), promote); }
+		});
+	}
+
+
+	/**
+	 * verschiebt einen Eintrag: erst auerhalb des Locks kopieren, dann unter dem 
+	 * Lock prfen, ob der Eintrag noch derselbe ist, umbenennen, den Index ndern 
+	 * und das Original lschen. Ein {@link #commit(String)} whrend des Kopierens
+	 * ersetzt den Eintrag, dann wird nur die Kopie verworfen.
+	 */
+	private void move(String key, File to, boolean hot) {
+		Entry e;
+		File from;
+		synchronized (this) {
+			e = mEntries.get(key);
+			if (e==null) return;
+			from = e.dir;
+		}
+		File tmp = null;
+		try {
+			if (to==null || (!to.isDirectory() && !to.mkdirs())) throw new IOException("kein Zielverzeichnis");
+			tmp = new File(to, key+".tmp");
+			DeviceMigration.copy(new File(from, key), tmp);
+		} catch (IOException ex) {
+			Log.w(TAG, "kann "+key+" nicht verschieben", ex);
+			if (tmp!=null) tmp.delete();
+			synchronized (this) { e.moving = false; }
+			return;
+		}
+		synchronized (this) {
+			e.moving = false;
+			if (mEntries.get(key)!=e) {
+				// inzwischen gelscht oder neu geschrieben
+				tmp.delete();
+				return;
+			}
+			if (!tmp.renameTo(new File(to, key))) {
+				Log.w(TAG, "kann "+key+" nicht verschieben, rename fehlgeschlagen");
+				tmp.delete();
+				return;
+			}
+			if (e.hot) mHotBytes -= e.size;
+			e.dir = to;
+			e.hot = hot;
+			if (hot) mHotBytes += e.size;
+			new File(from, key).delete();
+		}
+	}
+
+
+	/**
+	 * @param d die Karte oder null fr die gerade passende
+	 * @return das Verzeichnis auf der Karte oder null, falls keine geeignet ist
+	 */
+	private File coldDir(Device d) {
+		if (d==null) {
+			DeviceRegistry r = Environment2.registry();
+			if (r.secondary!=null && r.secondary.isAvailable() && r.secondary.isWriteable()) d = r.secondary;
+			else if (!r.externalEmulated && r.primary.isAvailable() && r.primary.isWriteable()) d = r.primary;
+			else return null;
+		}
+		return new File(d.getMountPoint() + Environment2.PATH_PREFIX + mContext.getPackageName() + "/files/" + DIR + mName);
+	}
+
+
+	private void scan(File dir, boolean hot) {
+		File[] files = dir==null ? null : dir.listFiles();
+		if (files==null) return;
+		for (File f : files) {
+			String key = f.getName();
+			if (!f.isFile()) continue;
+			if (key.endsWith(".tmp")) {
+				// Rest eines abgebrochenen Verschiebens
+				f.delete();
+				continue;
+			}
+			if (mEntries.containsKey(key)) {
+				// doppelt nach einem Absturz beim Verschieben; die interne Kopie gilt
+				f.delete();
+				continue;
+			}
+			mEntries.put(key, new Entry(dir, f.length(), hot));
+			if (hot) mHotBytes += f.length();
+		}
+	}
+
+
+	private static void checkKey(String key) {
+		if (key==null || key.length()==0 || key.indexOf('/')>=0 || key.endsWith(".tmp")) 
+			throw new IllegalArgumentException("ungltiger Schlssel "+key);
+	}
+
+
+	private static synchronized ExecutorService executor() {
+		if (mExecutor==null) mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Environment2-Tiered");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		return mExecutor;
+	}
+}
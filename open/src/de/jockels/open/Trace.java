@@ -0,0 +1,151 @@
+package de.jockels.open;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ein Ringpuffer der letzten {@link #SIZE} Ereignisse bei der Erkennung der 
+ * Devices, als Ersatz fr die bisherigen Log-Aufrufe. Aufgezeichnet werden 
+ * nur ein Ereigniscode, zwei Referenzen auf ohnehin vorhandene Objekte (etwa
+ * MountPoints) und zwei long-Werte, alles in vorab angelegte Arrays; Text 
+ * entsteht erst bei {@link #dump(StringBuilder)}. Damit kann der Trace auch 
+ * in ausgelieferten Apps eingeschaltet bleiben, um falsch erkannte Karten 
+ * nachtrglich untersuchen zu knnen.
+ * <p>
+ * Schreiber holen sich per AtomicLong eine Nummer und belegen den Platz
+ * dazu per compareAndSet auf seiner Sequenznummer, die erst nach den Daten
+ * wieder freigegeben wird. {@link #dump(StringBuilder)} belegt jeden Platz
+ * zum Lesen genauso. Ist ein Platz gerade belegt (ein Schreiber hat den Ring
+ * einmal umrundet, oder es luft ein dump), geht das neue Ereignis verloren;
+ * halb geschriebene oder gemischte Eintrge gibt es so nicht.
+ *
+ * @see Environment2#setTraceLevel(int)
+ * @see Environment2#dumpTrace()
+ * @since 1.6
+ */
+final class Trace {
+	static final int SIZE = 256;
+	private static final int MASK = SIZE-1;
+
+	// Ereigniscodes; %1$s und %2$s sind die Referenzen, %3$d und %4$d die long-Werte
+	static final int BROADCAST = 0;
+	static final int RESCAN = 1;
+	static final int UPDATE = 2;
+	static final int VOLD_CACHED = 3;
+	static final int VOLD_FAILED = 4;
+	static final int VOLD_READ = 5;
+	static final int VOLD_DEVICE = 6;
+	static final int PRIMARY_FIXED = 7;
+	static final int DISCARD_IGNORED = 8;
+	static final int MOUNTINFO_PARSED = 9;
+	static final int MOUNTINFO_FAILED = 10;
+	static final int MOUNTINFO_READ = 11;
+	static final int SECONDARY = 12;
+	static final int NOT_RESPONDING = 13;
+
+	private static final int[] LEVELS = {
+		Environment2.TRACE_INFO,	// BROADCAST
+		Environment2.TRACE_INFO,	// RESCAN
+		Environment2.TRACE_INFO,	// UPDATE
+		Environment2.TRACE_VERBOSE,	// VOLD_CACHED
+		Environment2.TRACE_ERROR,	// VOLD_FAILED
+		Environment2.TRACE_VERBOSE,	// VOLD_READ
+		Environment2.TRACE_VERBOSE,	// VOLD_DEVICE
+		Environment2.TRACE_WARN,	// PRIMARY_FIXED
+		Environment2.TRACE_WARN,	// DISCARD_IGNORED
+		Environment2.TRACE_VERBOSE,	// MOUNTINFO_PARSED
+		Environment2.TRACE_ERROR,	// MOUNTINFO_FAILED
+		Environment2.TRACE_VERBOSE,	// MOUNTINFO_READ
+		Environment2.TRACE_INFO,	// SECONDARY
+		Environment2.TRACE_WARN,	// NOT_RESPONDING
+	};
+	private static final String[] FORMATS = {
+		"Storage: %1$s-%2$s",
+		"Rescan: %3$d Gerte in %4$d ms",
+		"Update: %3$d Gerte in %4$d ms",
+		"%1$s aus dem Cache gelesen",
+		"kann %1$s nicht lesen",
+		"%1$s gelesen; Zeilen: %3$d, Gerte gefunden: %4$d",
+		"Gert %1$s an %2$s",
+		"isExternStorageRemovable overwrite (%1$s) auf false",
+		"isExternStorageRemovable overwrite ('discard=enable') ignoriert",
+		"mountinfo gelesen; Zeilen neu zerlegt: %3$d",
+		"kann mountinfo nicht lesen",
+		"mountinfo ausgewertet; Gerte gefunden: %3$d",
+		"secondary: %1$s, primary removable: %3$d",
+		"%1$s antwortet nicht",
+	};
+
+	static volatile int mLevel = Environment2.TRACE_INFO;
+
+	private static final AtomicLong mNext = new AtomicLong(0);
+	private static final AtomicLongArray mSeq = new AtomicLongArray(SIZE);
+	private static final long[] mTime = new long[SIZE];
+	private static final long[] mThread = new long[SIZE];
+	private static final int[] mCode = new int[SIZE];
+	private static final Object[] mRef1 = new Object[SIZE];
+	private static final Object[] mRef2 = new Object[SIZE];
+	private static final long[] mArg1 = new long[SIZE];
+	private static final long[] mArg2 = new long[SIZE];
+
+	private Trace() {}
+
+
+	static boolean isEnabled(int code) { return LEVELS[code]<=mLevel; }
+
+	static void event(int code) { event(code, null, null, 0, 0); }
+
+	static void event(int code, Object ref) { event(code, ref, null, 0, 0); }
+
+	static void event(int code, Object ref1, Object ref2) { event(code, ref1, ref2, 0, 0); }
+
+	static void event(int code, long arg1, long arg2) { event(code, null, null, arg1, arg2); }
+
+	static void event(int code, Object ref, long arg1, long arg2) { event(code, ref, null, arg1, arg2); }
+
+	static void event(int code, Object ref1, Object ref2, long arg1, long arg2) {
+		if (LEVELS[code]>mLevel) return;
+		long n = mNext.getAndIncrement();
+		int i = (int)n & MASK;
+		// Platz belegen: negativ heit, wird gerade geschrieben oder gelesen
+		long s = mSeq.get(i);
+		if (s<0 || s>n || !mSeq.compareAndSet(i, s, -(n+1))) return;
+		mTime[i] = System.currentTimeMillis();
+		mThread[i] = Thread.currentThread().getId();
+		mCode[i] = code;
+		mRef1[i] = ref1;
+		mRef2[i] = ref2;
+		mArg1[i] = arg1;
+		mArg2[i] = arg2;
+		mSeq.set(i, n+1);
+	}
+
+
+	/**
+	 * Hngt alle noch im Puffer liegenden Ereignisse als Text an, das lteste
+	 * zuerst, eines pro Zeile.
+	 */
+	static void dump(StringBuilder sb) {
+		SimpleDateFormat df = new SimpleDateFormat("HH:mm:ss.SSS");
+		long end = mNext.get();
+		for (long n=Math.max(0, end-SIZE); n<end; n++) {
+			int i = (int)n & MASK;
+			// zum Lesen belegen, damit kein Schreiber dazwischenkommt
+			if (!mSeq.compareAndSet(i, n+1, -(n+1))) continue;
+			long time = mTime[i], thread = mThread[i], arg1 = mArg1[i], arg2 = mArg2[i];
+			int code = mCode[i];
+			Object ref1 = mRef1[i], ref2 = mRef2[i];
+			mSeq.set(i, n+1);
+			sb.append(df.format(new Date(time))).append(" [").append(thread).append("] ")
+				.append(String.format(FORMATS[code], ref1, ref2, arg1, arg2)).append('\n');
+		}
+	}
+
+
+	/** vergisst alle bisherigen Ereignisse; fr den Replay in bench/ */
+	static void clear() {
+		for (int i=0; i<SIZE; i++) mSeq.set(i, 0);
+	}
+}
@@ -0,0 +1,306 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ermittelt, wie viel Platz ein Verzeichnisbaum belegt, parallel auf einem 
+ * kleinen Thread-Pool: Jedes Verzeichnis ist eine eigene Aufgabe, die ihre 
+ * Unterverzeichnisse wiederum als Aufgaben einreiht. Zwischenstnde gehen 
+ * whrend des Laufs an einen {@link Listener}.
+ * <p>
+ * Pro Verzeichnis werden die Summe der direkt darin liegenden Dateien und 
+ * die Namen der Unterverzeichnisse aufgehoben, zusammen mit dem 
+ * nderungszeitpunkt des Verzeichnisses. Solange der sich nicht ndert (also 
+ * keine Datei angelegt, gelscht oder umbenannt wurde), kostet das 
+ * Verzeichnis beim nchsten Lauf nur noch einen stat-Aufruf statt eines 
+ * Auflistens und eines stat pro Datei. Dateien, die an Ort und Stelle 
+ * wachsen, ndern den Zeitpunkt des Verzeichnisses nicht; wer das braucht, 
+ * ruft {@link #clearCache()} auf.
+ * <p>
+ * Ist ein Baum vollstndig durchlaufen, merkt sich jedes Verzeichnis 
+ * auerdem die Summe seines ganzen Unterbaums. Hat sich das Verzeichnis 
+ * nicht gendert und ist die Summe jnger als {@link #TREE_TRUST} ms, wird 
+ * der Unterbaum gar nicht mehr betreten. nderungen tief im Baum sieht ein 
+ * Lauf in dieser Zeit also nicht.
+ * <p>
+ * Das eigentlich passende Fork/Join-Framework gibt es auf Android erst ab 
+ * API 21, daher der einfache Pool.
+ *
+ * @see Environment2#scanUsage(File, Listener)
+ * @since 1.6
+ */
+public final class UsageScanner {
+	/** Empfnger der Zwischenstnde und des Ergebnisses */
+	public interface Listener {
+		/**
+		 * Wird etwa alle {@link UsageScanner#PROGRESS_INTERVAL} ms und einmal am 
+		 * Ende aufgerufen, aus einem Hintergrund-Thread.
+		 * @param bytes die bisher gezhlten Bytes
+		 * @param files die bisher gezhlten Dateien
+		 * @param done true beim letzten Aufruf
+		 */
+		void onProgress(long bytes, int files, boolean done);
+	}
+
+	static final long PROGRESS_INTERVAL = 200;
+	private static final int THREADS = 3;
+	private static final int MAX_DEPTH = 64;
+	private static final int MAX_CACHE = 50000;
+	/** so lange nach einer nderung wird nicht gecacht; FAT speichert nur auf 2 s genau */
+	private static final long RACY = 2000;
+	/** so lange gilt die Summe eines unvernderten Unterbaums ohne Nachsehen */
+	static final long TREE_TRUST = 60000;
+
+	private static final class Dir {
+		final long mtime, bytes;
+		final int files;
+		final String[] subdirs;
+		/** Summe des ganzen Unterbaums, null solange nicht vollstndig gezhlt */
+		volatile Tree tree;
+
+		Dir(long mtime, long bytes, int files, String[] subdirs) {
+			this.mtime = mtime;
+			this.bytes = bytes;
+			this.files = files;
+			this.subdirs = subdirs;
+		}
+	}
+
+	private static final class Tree {
+		final long bytes, time;
+		final int files;
+
+		Tree(long bytes, int files, long time) {
+			this.bytes = bytes;
+			this.files = files;
+			this.time = time;
+		}
+	}
+
+	private static final ConcurrentHashMap<String, Dir> mCache = new ConcurrentHashMap<String, Dir>();
+	private static ExecutorService mPool = null;
+
+	private UsageScanner() {}
+
+
+	/** vergisst alle Zwischensummen */
+	public static void clearCache() {
+		mCache.clear();
+	}
+
+
+	/** @see Environment2#scanUsage(File, Listener) */
+	static Future<Long> scan(File root, Listener l) {
+		Scan s = new Scan(l);
+		s.submit(root, 0, null);
+		return s;
+	}
+
+
+	private static final class Scan implements Future<Long> {
+		final Listener listener;
+		final AtomicLong bytes = new AtomicLong(0);
+		final AtomicInteger files = new AtomicInteger(0);
+		final AtomicInteger pending = new AtomicInteger(0);
+		final AtomicLong lastProgress = new AtomicLong(0);
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile boolean cancelled = false;
+
+		Scan(Listener l) { listener = l; }
+
+		void submit(final File dir, final int depth, final Node parent) {
+			pending.incrementAndGet();
+			pool().execute(new Runnable() {
+				public void run() {
+					try {
+						if (!cancelled) visit(dir, depth, parent);
+						else if (parent!=null) parent.done(0, 0, false);
+					} finally {
+						if (pending.decrementAndGet()==0) finish();
+					}
+				}
+			});
+		}
+
+		private void visit(File dir, int depth, Node parent) {
+			String path = dir.getAbsolutePath();
+			long mtime = dir.lastModified();
+			long now = System.currentTimeMillis();
+			Dir d = mCache.get(path);
+			boolean cached = d!=null && d.mtime==mtime && mtime!=0;
+			if (!cached) {
+				d = read(dir, mtime);
+				if (mtime!=0 && now-mtime>=RACY) {
+					if (mCache.size()>=MAX_CACHE) mCache.clear();
+					mCache.put(path, d);
+					cached = true;
+				}
+			} else {
+				Tree t = d.tree;
+				if (t!=null && now-t.time<TREE_TRUST) {
+					// Unterbaum unverndert und frisch gezhlt, nicht betreten
+					bytes.addAndGet(t.bytes);
+					files.addAndGet(t.files);
+					if (parent!=null) parent.done(t.bytes, t.files, true);
+					progress();
+					return;
+				}
+			}
+			bytes.addAndGet(d.bytes);
+			files.addAndGet(d.files);
+			Node n = new Node(parent, cached ? d : null, now);
+			n.add(d.bytes, d.files);
+			if (depth<MAX_DEPTH) {
+				for (String s : d.subdirs) {
+					n.open.incrementAndGet();
+					submit(new File(dir, s), depth+1, n);
+				}
+			} else if (d.subdirs.length>0) n.exact = false;
+			n.done(0, 0, true);
+			progress();
+		}
+
+
+		/** 
+		 * Ein Verzeichnis whrend des Laufs; sammelt die Summen seiner 
+		 * Unterverzeichnisse und gibt sie nach oben weiter, wenn das letzte 
+		 * fertig ist.
+		 */
+		private final class Node {
+			final Node parent;
+			final Dir dir;
+			final long time;
+			final AtomicLong treeBytes = new AtomicLong(0);
+			final AtomicInteger treeFiles = new AtomicInteger(0);
+			/** das Verzeichnis selbst und jedes noch offene Unterverzeichnis */
+			final AtomicInteger open = new AtomicInteger(1);
+			/** false, wenn irgendwo im Unterbaum etwas nicht sicher gecacht ist */
+			volatile boolean exact;
+
+			Node(Node parent, Dir dir, long time) {
+				this.parent = parent;
+				this.dir = dir;
+				this.time = time;
+				exact = dir!=null;
+			}
+
+			void add(long b, int f) {
+				treeBytes.addAndGet(b);
+				treeFiles.addAndGet(f);
+			}
+
+			void done(long b, int f, boolean ok) {
+				add(b, f);
+				if (!ok) exact = false;
+				if (open.decrementAndGet()!=0) return;
+				boolean e = exact && !cancelled;
+				long tb = treeBytes.get();
+				int tf = treeFiles.get();
+				if (e) dir.tree = new Tree(tb, tf, time);
+				if (parent!=null) parent.done(tb, tf, e);
+			}
+		}
+
+		private void progress() {
+			if (listener==null) return;
+			long now = System.currentTimeMillis(), last = lastProgress.get();
+			if (now-last>=PROGRESS_INTERVAL && lastProgress.compareAndSet(last, now))
+				listener.onProgress(bytes.get(), files.get(), false);
+		}
+
+		private void finish() {
+			done.countDown();
+			if (listener!=null && !cancelled) listener.onProgress(bytes.get(), files.get(), true);
+		}
+
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (isDone()) return false;
+			cancelled = true;
+			return true;
+		}
+
+		public boolean isCancelled() { return cancelled; }
+		// abgebrochen gilt als fertig, auch wenn noch Threads auslaufen
+		public boolean isDone() { return cancelled || done.getCount()==0; }
+
+		public Long get() throws InterruptedException {
+			if (cancelled) throw new CancellationException();
+			done.await();
+			if (cancelled) throw new CancellationException();
+			return bytes.get();
+		}
+
+		public Long get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+			if (cancelled) throw new CancellationException();
+			if (!done.await(timeout, unit)) throw new TimeoutException();
+			if (cancelled) throw new CancellationException();
+			return bytes.get();
+		}
+	}
+
+
+	private static Dir read(File dir, long mtime) {
+		File[] list = dir.listFiles();
+		if (list==null) return new Dir(mtime, 0, 0, new String[0]);
+		// kanonischen Pfad des Verzeichnisses nur einmal auflsen
+		File canon;
+		try {
+			canon = dir.getCanonicalFile();
+		} catch (IOException e) {
+			canon = null;
+		}
+		long bytes = 0;
+		int files = 0, dirs = 0;
+		String[] subdirs = new String[list.length];
+		for (File f : list) {
+			if (f.isDirectory()) {
+				// symbolische Links auf Verzeichnisse nicht verfolgen, sonst doppelt oder im Kreis
+				if (!isLink(canon, f)) subdirs[dirs++] = f.getName();
+			} else {
+				bytes += f.length();
+				files++;
+			}
+		}
+		String[] s = new String[dirs];
+		System.arraycopy(subdirs, 0, s, 0, dirs);
+		return new Dir(mtime, bytes, files, s);
+	}
+
+
+	/** @param canon der kanonische Pfad des Verzeichnisses, in dem f liegt */
+	private static boolean isLink(File canon, File f) {
+		if (canon==null) return true;
+		try {
+			File c = new File(canon, f.getName());
+			return !c.getCanonicalFile().equals(c);
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+
+	private static synchronized ExecutorService pool() {
+		if (mPool==null) mPool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			private int mCount = 0;
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Environment2-Usage-"+(++mCount));
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		return mPool;
+	}
+}
@@ -0,0 +1,291 @@
+package de.jockels.open;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Liest die vold-Konfigurationsdateien (vold.fstab ab Android 2.2, vold.conf
+ * bei lteren Gerten) in einem Durchgang auf Byte-Ebene. Die Datei landet
+ * komplett in einem wiederverwendeten Puffer, Strings werden nur fr die
+ * Felder erzeugt, die wirklich gebraucht werden (Label und MountPoint), alles
+ * andere wird direkt im Puffer verglichen und als Bitmaske abgelegt.
+ * <p>
+ * Verstanden werden:
+ * <ul>
+ * <li>{@code dev_mount <label> <mount_point> <part> <sysfs_path...> [flags]} aus
+ * 	vold.fstab; enthlt ein Token hinter dem MountPoint "nonremovable" (z.B.
+ * 	"encryptable_nonremovable" beim Galaxy Note), wird {@link #FLAG_NONREMOVABLE}
+ * 	gesetzt.
+ * <li>{}-Blcke vor einem dev_mount (Samsung), deren Optionen zum folgenden
+ * 	dev_mount gehren; ausgewertet wird nur {@code discard = enable|disable}.
+ * <li>{@code volume_<label> { mount_point <pfad> ... }}-Blcke aus vold.conf.
+ * </ul>
+ * Kommentare beginnen mit #. Nicht thread-safe; {@link Environment2} benutzt
+ * eine Instanz nur whrend des Scans.
+ *
+ * @since 1.6
+ */
+final class VoldParser {
+	/** irgendein Token der dev_mount-Zeile enthlt "nonremovable" */
+	static final int FLAG_NONREMOVABLE = 1;
+	/** im zugehrigen Block steht "discard = disable" */
+	static final int FLAG_DISCARD_DISABLE = 2;
+	/** im zugehrigen Block steht "discard = enable" */
+	static final int FLAG_DISCARD_ENABLE = 4;
+
+	private static final byte[] DEV_MOUNT = bytes("dev_mount");
+	private static final byte[] DISCARD = bytes("discard");
+	private static final byte[] DISABLE = bytes("disable");
+	private static final byte[] ENABLE = bytes("enable");
+	private static final byte[] MOUNT_POINT = bytes("mount_point");
+	private static final byte[] NONREMOVABLE = bytes("nonremovable");
+	private static final byte[] VOLUME_ = bytes("volume_");
+
+	/**
+	 * Ein gefundenes Device, also eine dev_mount-Zeile oder ein volume-Block.
+	 */
+	static final class Entry {
+		final String label;
+		final String mountPoint;
+		final int flags;
+
+		Entry(String label, String mountPoint, int flags) {
+			this.label = label;
+			this.mountPoint = mountPoint;
+			this.flags = flags;
+		}
+
+		final boolean hasFlag(int flag) { return (flags & flag)!=0; }
+	}
+
+	private byte[] mBuf = new byte[4096];
+	private int mLen;
+	private int[] mTokOff = new int[16];
+	private int[] mTokLen = new int[16];
+	private int mLines;
+
+	// Zustand fr {}-Blcke
+	private boolean mInBlock;
+	private int mNameOff, mNameLen; // letztes Wort vor "{"
+	private int mBlockNameOff, mBlockNameLen;
+	private int mBlockMountOff, mBlockMountLen;
+	private int mBlockFlags;
+	private int mPendingFlags; // Flags eines Blocks ohne mount_point, gelten frs nchste dev_mount
+
+
+	/**
+	 * Liest die Datei und hngt alle gefundenen Eintrge in Dateireihenfolge an.
+	 * @param f die Konfigurationsdatei
+	 * @param out die Liste, an die die Eintrge angehngt werden
+	 * @return true, wenn die Datei gelesen werden konnte; false, wenn nicht (dann
+	 * 		bleibt out unverndert)
+	 */
+	boolean parse(File f, ArrayList<Entry> out) {
+		try {
+			read(f);
+		} catch (IOException e) {
+			return false;
+		}
+		parse(out);
+		return true;
+	}
+
+
+	/**
+	 * @return die Anzahl der Zeilen, die beim letzten {@link #parse(File, ArrayList)}
+	 * 		gelesen wurden
+	 */
+	int getLineCount() { return mLines; }
+
+
+	private void read(File f) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		try {
+			mLen = 0;
+			int n;
+			while ((n = in.read(mBuf, mLen, mBuf.length-mLen)) > 0) {
+				mLen += n;
+				if (mLen==mBuf.length) {
+					byte[] b = new byte[mBuf.length*2];
+					System.arraycopy(mBuf, 0, b, 0, mLen);
+					mBuf = b;
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+
+	private void parse(ArrayList<Entry> out) {
+		final byte[] b = mBuf;
+		final int len = mLen;
+		mLines = 0;
+		mInBlock = false;
+		mNameLen = mBlockNameLen = mBlockMountLen = 0;
+		mBlockFlags = mPendingFlags = 0;
+
+		int n = 0; // Tokens in der aktuellen Zeile
+		int i = 0;
+		while (i<len) {
+			byte c = b[i];
+			if (c=='\n') {
+				mLines++;
+				line(n, out);
+				n = 0;
+				i++;
+			} else if (c==' ' || c=='\t' || c=='\r') {
+				i++;
+			} else if (c=='#') {
+				while (i<len && b[i]!='\n') i++;
+			} else if (c=='{' || c=='}' || c=='=') {
+				n = token(n, i, 1);
+				i++;
+			} else {
+				int start = i;
+				while (i<len && !isDelimiter(b[i])) i++;
+				n = token(n, start, i-start);
+			}
+		}
+		if (n>0) {
+			mLines++;
+			line(n, out);
+		}
+	}
+
+
+	private static boolean isDelimiter(byte c) {
+		return c==' ' || c=='\t' || c=='\r' || c=='\n' || c=='#' || c=='{' || c=='}' || c=='=';
+	}
+
+
+	private int token(int n, int off, int len) {
+		if (n==mTokOff.length) {
+			int[] o = new int[n*2], l = new int[n*2];
+			System.arraycopy(mTokOff, 0, o, 0, n);
+			System.arraycopy(mTokLen, 0, l, 0, n);
+			mTokOff = o;
+			mTokLen = l;
+		}
+		mTokOff[n] = off;
+		mTokLen[n] = len;
+		return n+1;
+	}
+
+
+	private void line(int n, ArrayList<Entry> out) {
+		int i = 0;
+		while (i<n) {
+			int o = mTokOff[i], l = mTokLen[i];
+			if (isChar(o, l, '{')) {
+				mInBlock = true;
+				mBlockNameOff = mNameOff;
+				mBlockNameLen = mNameLen;
+				mBlockMountLen = 0;
+				mBlockFlags = 0;
+				mNameLen = 0;
+				i++;
+			} else if (isChar(o, l, '}')) {
+				endBlock(out);
+				i++;
+			} else if (mInBlock) {
+				i = blockOption(i, n);
+			} else if (equals(o, l, DEV_MOUNT)) {
+				devMount(i+1, n, out);
+				return;
+			} else {
+				// knnte der Name eines folgenden Blocks sein
+				mNameOff = o;
+				mNameLen = l;
+				i++;
+			}
+		}
+	}
+
+
+	/**
+	 * wertet "key = value" oder "key value" innerhalb eines Blocks aus
+	 * @return Index des ersten nicht verbrauchten Tokens
+	 */
+	private int blockOption(int i, int n) {
+		int ko = mTokOff[i], kl = mTokLen[i];
+		int j = i+1;
+		if (j<n && isChar(mTokOff[j], mTokLen[j], '=')) j++;
+		if (j>=n || isChar(mTokOff[j], mTokLen[j], '{') || isChar(mTokOff[j], mTokLen[j], '}'))
+			return j;
+		int vo = mTokOff[j], vl = mTokLen[j];
+		if (equals(ko, kl, DISCARD)) {
+			if (equals(vo, vl, DISABLE)) mBlockFlags |= FLAG_DISCARD_DISABLE;
+			else if (equals(vo, vl, ENABLE)) mBlockFlags |= FLAG_DISCARD_ENABLE;
+		} else if (equals(ko, kl, MOUNT_POINT)) {
+			mBlockMountOff = vo;
+			mBlockMountLen = vl;
+		}
+		return j+1;
+	}
+
+
+	private void endBlock(ArrayList<Entry> out) {
+		if (!mInBlock) return;
+		mInBlock = false;
+		if (mBlockMountLen>0) {
+			// vold.conf: volume_xxx { mount_point ... }
+			int o = mBlockNameOff, l = mBlockNameLen;
+			if (startsWith(o, l, VOLUME_)) {
+				o += VOLUME_.length;
+				l -= VOLUME_.length;
+			}
+			out.add(new Entry(string(o, l), string(mBlockMountOff, mBlockMountLen), mBlockFlags));
+		} else {
+			// vold.fstab: Block gehrt zum nchsten dev_mount
+			mPendingFlags = mBlockFlags;
+		}
+	}
+
+
+	private void devMount(int i, int n, ArrayList<Entry> out) {
+		if (n-i<2) return; // unvollstndige Zeile
+		int flags = mPendingFlags;
+		mPendingFlags = 0;
+		for (int j=i+2; j<n; j++)
+			if (contains(mTokOff[j], mTokLen[j], NONREMOVABLE)) flags |= FLAG_NONREMOVABLE;
+		out.add(new Entry(string(mTokOff[i], mTokLen[i]), string(mTokOff[i+1], mTokLen[i+1]), flags));
+	}
+
+
+	// Vergleiche direkt im Puffer -------------------------------------------------------------------
+	private boolean isChar(int off, int len, char c) {
+		return len==1 && mBuf[off]==c;
+	}
+
+	private boolean equals(int off, int len, byte[] s) {
+		return len==s.length && startsWith(off, len, s);
+	}
+
+	private boolean startsWith(int off, int len, byte[] s) {
+		if (len<s.length) return false;
+		for (int i=0; i<s.length; i++) if (mBuf[off+i]!=s[i]) return false;
+		return true;
+	}
+
+	private boolean contains(int off, int len, byte[] s) {
+		for (int i=0; i<=len-s.length; i++)
+			if (startsWith(off+i, len-i, s)) return true;
+		return false;
+	}
+
+	@SuppressWarnings("deprecation")
+	private String string(int off, int len) {
+		// die Dateien sind ASCII; spart den Umweg ber einen Charset-Decoder
+		return new String(mBuf, 0, off, len);
+	}
+
+	@SuppressWarnings("deprecation")
+	private static byte[] bytes(String s) {
+		byte[] b = new byte[s.length()];
+		s.getBytes(0, s.length(), b, 0);
+		return b;
+	}
+}
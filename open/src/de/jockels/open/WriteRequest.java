@@ -0,0 +1,76 @@
+package de.jockels.open;
+
+/**
+ * Beschreibt, was geschrieben werden soll, damit {@link Environment2#choosePlacement(android.content.Context, WriteRequest)}
+ * ein passendes {@link Device} aussuchen kann. Die Setter liefern this, so dass
+ * sich ein Request in einem Ausdruck zusammenbauen lsst:
+ * <pre>
+ * new WriteRequest(20*1024*1024).setLatency(WriteRequest.LATENCY_BULK).setSubdir("video")
+ * </pre>
+ * Nicht thread-safe, kann aber wiederverwendet werden.
+ *
+ * @see PlacementPolicy
+ * @since 1.6
+ */
+public final class WriteRequest {
+	/** keine besonderen Anforderungen an die Geschwindigkeit */
+	public static final int LATENCY_NORMAL = 0;
+	/** viele kleine Zugriffe, z.B. Datenbanken; zhlt die Zeit fr 4K schreiben plus fsync */
+	public static final int LATENCY_LOW = 1;
+	/** groe Dateien am Stck, z.B. Videos; zhlt das sequentielle Schreiben */
+	public static final int LATENCY_BULK = 2;
+
+	private long mSize;
+	private boolean mDurable = false;
+	private boolean mSurviveRemoval = false;
+	private int mLatency = LATENCY_NORMAL;
+	private String mSubdir = null;
+
+	/** @param size die erwartete Gre in Bytes, 0 falls unbekannt */
+	public WriteRequest(long size) {
+		setSize(size);
+	}
+
+	public WriteRequest setSize(long size) {
+		if (size<0) throw new IllegalArgumentException("size darf nicht negativ sein");
+		mSize = size;
+		return this;
+	}
+
+	/** 
+	 * @param durable true, wenn die Daten nicht einfach neu zu beschaffen sind;
+	 * 		dann werden fest eingebaute Speicher bevorzugt 
+	 */
+	public WriteRequest setDurable(boolean durable) {
+		mDurable = durable;
+		return this;
+	}
+
+	/** 
+	 * @param survive true, wenn die Daten auch nach dem Entnehmen einer Karte
+	 * 		noch da sein mssen; dann kommen nur fest eingebaute Speicher in Frage 
+	 */
+	public WriteRequest setMustSurviveRemoval(boolean survive) {
+		mSurviveRemoval = survive;
+		return this;
+	}
+
+	/** @param latency eine der Konstanten LATENCY_xxx */
+	public WriteRequest setLatency(int latency) {
+		if (latency<LATENCY_NORMAL || latency>LATENCY_BULK) throw new IllegalArgumentException("unbekannte latency "+latency);
+		mLatency = latency;
+		return this;
+	}
+
+	/** @param subdir das Unterverzeichnis wie bei {@link Device#getFilesDir(android.content.Context, String)}, kann null sein */
+	public WriteRequest setSubdir(String subdir) {
+		mSubdir = subdir;
+		return this;
+	}
+
+	public long getSize() { return mSize; }
+	public boolean isDurable() { return mDurable; }
+	public boolean mustSurviveRemoval() { return mSurviveRemoval; }
+	public int getLatency() { return mLatency; }
+	public String getSubdir() { return mSubdir; }
+}
@@ -1,5 +1,7 @@
 package de.jockels.open.pref;
 
+import java.io.File;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
@@ -85,11 +87,11 @@ public class DevicesListPreference extends ListPreference {
 			else
 				return Environment2.getInternalStorage();
 		} else {
-			// Wert in Devices-Tabelle suchen
-			Device[] d = Environment2.getDevices(null, false, true, true);
-			for (Device i : d) { if (n.startsWith(i.getMountPoint())) return i; }
-			Log.i(TAG, "didn't find mount point "+n);
-			return null;
+			// Wert in Devices-Tabelle suchen, lngster MountPoint gewinnt, auch
+			// wenn er nicht verfgbar ist; das muss der Aufrufer prfen
+			Device d = Environment2.getDeviceForPath(new File(n));
+			if (d==null) Log.i(TAG, "didn't find mount point "+n);
+			return d;
 		}
 	}
 	
@@ -111,7 +113,7 @@ public class DevicesListPreference extends ListPreference {
 	
 	protected String createEntry(Device d) {
 		return d.getName() + (d.isAvailable() ? 
-						"\n\t" + (f( d.isRemovable() ? d.getSize().guessSize() : d.getSize().second ) + " / " + f( d.getSize().first) + " frei")
+						"\n\t" + (f( d.isRemovable() ? d.getSize().guessSize() : d.getSize().getTotal() ) + " / " + f( d.getSize().getFree()) + " frei")
 					:	" (fehlt)");
 	}
 	